@@ -0,0 +1,75 @@
+package com.netradius.lucene.hazelcast.benchmark;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.netradius.lucene.hazelcast.directory.HazelcastDirectory;
+import com.netradius.lucene.hazelcast.serializer.HazelcastDataSerializableFactory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.store.SingleInstanceLockFactory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Directory implementations compared by the benchmarks. RAMDirectory and MMapDirectory are the
+ * reference points for HazelcastDirectory on an in-process member.
+ */
+public enum DirectoryType {
+
+  HAZELCAST {
+    @Override
+    Directory open() {
+      Config config = new Config();
+      config.setProperty("hazelcast.logging.type", "none");
+      config.getNetworkConfig().getJoin().getMulticastConfig().setEnabled(false);
+      config.getSerializationConfig().addDataSerializableFactory(
+          HazelcastDataSerializableFactory.FACTORY_ID,
+          new HazelcastDataSerializableFactory());
+      final HazelcastInstance hazelcastInstance = Hazelcast.newHazelcastInstance(config);
+      return new HazelcastDirectory(hazelcastInstance, null, "benchmark",
+          new SingleInstanceLockFactory()) {
+        @Override
+        public void close() throws IOException {
+          super.close();
+          hazelcastInstance.shutdown();
+        }
+      };
+    }
+  },
+
+  RAM {
+    @Override
+    Directory open() {
+      return new RAMDirectory();
+    }
+  },
+
+  MMAP {
+    @Override
+    Directory open() throws IOException {
+      final Path path = Files.createTempDirectory("benchmark");
+      return new MMapDirectory(path) {
+        @Override
+        public synchronized void close() {
+          super.close();
+          try {
+            IOUtils.rm(path);
+          } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+          }
+        }
+      };
+    }
+  };
+
+  /**
+   * Opens a new empty directory, closing it releases everything it uses.
+   */
+  abstract Directory open() throws IOException;
+}
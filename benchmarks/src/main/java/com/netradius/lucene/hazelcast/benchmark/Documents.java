@@ -0,0 +1,62 @@
+package com.netradius.lucene.hazelcast.benchmark;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates reproducible documents from a fixed vocabulary of {@link #TERMS} terms.
+ */
+final class Documents {
+
+  static final int TERMS = 1000;
+
+  static final String FIELD = "body";
+
+  private static final int WORDS_PER_DOCUMENT = 100;
+
+  private Documents() {}
+
+  /**
+   * Returns a term of the vocabulary.
+   */
+  static String term(int index) {
+    return "term" + index;
+  }
+
+  /**
+   * Indexes documents into a directory and commits them.
+   *
+   * @param directory the directory
+   * @param count the number of documents
+   * @param seed the seed of the generated text
+   * @throws IOException if writing the index failed
+   */
+  static void index(Directory directory, int count, long seed) throws IOException {
+    Random random = new Random(seed);
+    StringBuilder text = new StringBuilder();
+    try (IndexWriter writer = new IndexWriter(directory,
+        new IndexWriterConfig(new StandardAnalyzer()))) {
+      for (int i = 0; i < count; i++) {
+        text.setLength(0);
+        for (int j = 0; j < WORDS_PER_DOCUMENT; j++) {
+          // skewed towards low terms so queries match a varying number of documents
+          text.append(term((int) (TERMS * Math.pow(random.nextDouble(), 2)))).append(' ');
+        }
+        Document document = new Document();
+        document.add(new StringField("id", Integer.toString(i), Field.Store.YES));
+        document.add(new TextField(FIELD, text.toString(), Field.Store.YES));
+        writer.addDocument(document);
+      }
+      writer.commit();
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package com.netradius.lucene.hazelcast.benchmark;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a file written once per trial. The input is opened once per iteration so the benchmarks
+ * measure reading rather than opening, except for {@link #openInput()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexInputBenchmark {
+
+  private static final String NAME = "_0.fdt";
+
+  @Param({"HAZELCAST", "RAM", "MMAP"})
+  public DirectoryType directoryType;
+
+  @Param({"1048576"})
+  public int fileSize;
+
+  @Param({"4096"})
+  public int chunkSize;
+
+  private Directory directory;
+  private IndexInput input;
+  private byte[] buffer;
+  private long[] positions;
+  private int position;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    directory = directoryType.open();
+    byte[] data = new byte[fileSize];
+    Random random = new Random(fileSize);
+    random.nextBytes(data);
+    try (IndexOutput out = directory.createOutput(NAME, IOContext.DEFAULT)) {
+      out.writeBytes(data, 0, data.length);
+    }
+    directory.sync(Collections.singleton(NAME));
+    buffer = new byte[chunkSize];
+    positions = new long[1024];
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = random.nextInt(fileSize - chunkSize);
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void open() throws IOException {
+    input = directory.openInput(NAME, IOContext.DEFAULT);
+  }
+
+  @TearDown(Level.Iteration)
+  public void close() throws IOException {
+    input.close();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    directory.close();
+  }
+
+  @Benchmark
+  public byte readBytes() throws IOException {
+    input.seek(0);
+    for (int i = 0; i + chunkSize <= fileSize; i += chunkSize) {
+      input.readBytes(buffer, 0, chunkSize);
+    }
+    return buffer[0];
+  }
+
+  @Benchmark
+  public int readByte() throws IOException {
+    input.seek(0);
+    int sum = 0;
+    for (int i = 0; i < fileSize; i++) {
+      sum += input.readByte();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public byte seek() throws IOException {
+    input.seek(nextPosition());
+    return input.readByte();
+  }
+
+  @Benchmark
+  public byte slice() throws IOException {
+    IndexInput slice = input.slice("slice", nextPosition(), chunkSize);
+    slice.readBytes(buffer, 0, chunkSize);
+    return buffer[0];
+  }
+
+  @Benchmark
+  public long openInput() throws IOException {
+    try (IndexInput in = directory.openInput(NAME, IOContext.DEFAULT)) {
+      return in.length();
+    }
+  }
+
+  @Benchmark
+  public long fileLength() throws IOException {
+    return directory.fileLength(NAME);
+  }
+
+  private long nextPosition() {
+    position = (position + 1) & (positions.length - 1);
+    return positions[position];
+  }
+}
@@ -0,0 +1,87 @@
+package com.netradius.lucene.hazelcast.benchmark;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a whole file per invocation, either in chunks or a byte at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexOutputBenchmark {
+
+  @Param({"HAZELCAST", "RAM", "MMAP"})
+  public DirectoryType directoryType;
+
+  @Param({"1048576"})
+  public int fileSize;
+
+  @Param({"4096"})
+  public int chunkSize;
+
+  private Directory directory;
+  private byte[] data;
+  private int fileCount;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    directory = directoryType.open();
+    data = new byte[fileSize];
+    new Random(fileSize).nextBytes(data);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    directory.close();
+  }
+
+  @Benchmark
+  public long writeBytes() throws IOException {
+    String name = "_" + fileCount++ + ".fdt";
+    long checksum;
+    try (IndexOutput out = directory.createOutput(name, IOContext.DEFAULT)) {
+      for (int i = 0; i < fileSize; i += chunkSize) {
+        out.writeBytes(data, i, Math.min(chunkSize, fileSize - i));
+      }
+      checksum = out.getChecksum();
+    }
+    directory.deleteFile(name);
+    return checksum;
+  }
+
+  @Benchmark
+  public long writeByte() throws IOException {
+    String name = "_" + fileCount++ + ".fdt";
+    long checksum;
+    try (IndexOutput out = directory.createOutput(name, IOContext.DEFAULT)) {
+      for (int i = 0; i < fileSize; i++) {
+        out.writeByte(data[i]);
+      }
+      checksum = out.getChecksum();
+    }
+    directory.deleteFile(name);
+    return checksum;
+  }
+}
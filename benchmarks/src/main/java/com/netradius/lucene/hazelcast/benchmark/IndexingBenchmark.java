@@ -0,0 +1,61 @@
+package com.netradius.lucene.hazelcast.benchmark;
+
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexes and commits a batch of documents into an empty index per invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexingBenchmark {
+
+  @Param({"HAZELCAST", "RAM", "MMAP"})
+  public DirectoryType directoryType;
+
+  @Param({"10000"})
+  public int documents;
+
+  private Directory directory;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    directory = directoryType.open();
+  }
+
+  @TearDown(Level.Invocation)
+  public void clear() throws IOException {
+    for (String name : directory.listAll()) {
+      directory.deleteFile(name);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    directory.close();
+  }
+
+  @Benchmark
+  public void ingest() throws IOException {
+    Documents.index(directory, documents, documents);
+  }
+}
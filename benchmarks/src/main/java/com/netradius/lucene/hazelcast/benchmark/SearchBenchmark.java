@@ -0,0 +1,81 @@
+package com.netradius.lucene.hazelcast.benchmark;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs queries against an index built once per trial, cycling through the vocabulary.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SearchBenchmark {
+
+  @Param({"HAZELCAST", "RAM", "MMAP"})
+  public DirectoryType directoryType;
+
+  @Param({"100000"})
+  public int documents;
+
+  private Directory directory;
+  private DirectoryReader reader;
+  private IndexSearcher searcher;
+  private int term;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    directory = directoryType.open();
+    Documents.index(directory, documents, documents);
+    reader = DirectoryReader.open(directory);
+    searcher = new IndexSearcher(reader);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    reader.close();
+    directory.close();
+  }
+
+  @Benchmark
+  public TopDocs termQuery() throws IOException {
+    return searcher.search(new TermQuery(nextTerm()), 10);
+  }
+
+  @Benchmark
+  public TopDocs booleanQuery() throws IOException {
+    BooleanQuery.Builder query = new BooleanQuery.Builder();
+    query.add(new TermQuery(nextTerm()), BooleanClause.Occur.MUST);
+    query.add(new TermQuery(nextTerm()), BooleanClause.Occur.SHOULD);
+    return searcher.search(query.build(), 10);
+  }
+
+  private Term nextTerm() {
+    term = (term + 7) % Documents.TERMS;
+    return new Term(Documents.FIELD, Documents.term(term));
+  }
+}
@@ -0,0 +1,400 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import org.apache.lucene.util.Accountable;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size bounded client side cache of file content blocks. Lucene files are never modified once
+ * written and blocks are keyed by the unique id of the file, so cached blocks never go stale and
+ * only need to be dropped when a file is deleted. The cache is split into segments, each evicting
+ * its least recently used blocks once it exceeds its share of the byte budget. Blocks larger than
+ * a segment are not cached at all, see {@link #getMaxBlockSize()}.
+ *
+ * <p>An off-heap cache keeps blocks in direct memory, keeping large caches out of the old
+ * generation. The memory is allocated in slabs as the cache fills, never more than the cache size
+ * rounded up to a whole page per segment, and the pages of evicted and invalidated blocks are
+ * reused right away rather than released by the garbage collector. Readers get a heap copy of an
+ * off-heap block, so a page is never read while it is reused. {@link #ramBytesUsed()} only
+ * reports the heap used, the blocks kept off heap are reported by {@link #getOffHeapBytes()} and
+ * the direct memory holding them by {@link #getOffHeapAllocatedBytes()}.
+ *
+ * @author Erik R. Jensen
+ */
+public class HBlockCache implements Accountable {
+
+  private static final int SEGMENTS = 16;
+
+  private final Segment[] segments;
+  private final long maxBytes;
+  private final boolean offHeap;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder oversized = new LongAdder();
+
+  /**
+   * Creates a new cache.
+   *
+   * @param maxBytes the maximum number of bytes to cache, 0 disables the cache
+   */
+  public HBlockCache(long maxBytes) {
+    this(maxBytes, false);
+  }
+
+  /**
+   * Creates a new cache.
+   *
+   * @param maxBytes the maximum number of bytes to cache, 0 disables the cache
+   * @param offHeap true to keep cached blocks in direct buffers
+   */
+  public HBlockCache(long maxBytes, boolean offHeap) {
+    this.maxBytes = maxBytes;
+    this.offHeap = offHeap;
+    this.segments = new Segment[SEGMENTS];
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment(getMaxBlockSize(), offHeap);
+    }
+  }
+
+  public boolean isEnabled() {
+    return maxBytes > 0;
+  }
+
+  /**
+   * Returns a cached block. Readers must only use absolute reads or a duplicate of the returned
+   * buffer, as blocks of a heap cache are shared.
+   *
+   * @param key the block key
+   * @return the block, copied to the heap by an off-heap cache, or null if it is not cached
+   */
+  public ByteBuffer get(HBlockKey key) {
+    if (!isEnabled()) {
+      return null;
+    }
+    ByteBuffer block = segment(key).get(key);
+    if (block != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+    }
+    return block;
+  }
+
+  /**
+   * Returns true if a block is cached, without counting a hit or miss.
+   *
+   * @param key the block key
+   * @return true if the block is cached
+   */
+  public boolean contains(HBlockKey key) {
+    return isEnabled() && segment(key).contains(key);
+  }
+
+  /**
+   * Adds a block to the cache, evicting least recently used blocks if needed. Readers must only
+   * use absolute reads or a duplicate of the returned buffer, as it is shared.
+   *
+   * @param key the block key
+   * @param block the block, which is copied by an off-heap cache and kept by a heap cache
+   * @return the block wrapped
+   */
+  public ByteBuffer put(HBlockKey key, byte[] block) {
+    return put(key, ByteBuffer.wrap(block));
+  }
+
+  /**
+   * Adds a block to the cache, evicting least recently used blocks if needed. Readers must only
+   * use absolute reads or a duplicate of the returned buffer, as it is shared.
+   *
+   * @param key the block key
+   * @param block the remaining bytes of the buffer, which is copied by an off-heap cache and kept
+   *     by a heap cache
+   * @return the block
+   */
+  public ByteBuffer put(HBlockKey key, ByteBuffer block) {
+    if (!isEnabled()) {
+      return block;
+    }
+    if (block.remaining() > getMaxBlockSize()) {
+      // would evict its whole segment only to be evicted itself
+      oversized.increment();
+      return block;
+    }
+    evictions.add(segment(key).put(key, block));
+    return block;
+  }
+
+  /**
+   * Removes all cached blocks of a file.
+   *
+   * @param file the file
+   */
+  public void invalidate(HFile file) {
+    // content keyed blocks never change and may be shared with other files
+    if (!isEnabled() || file.isInline() || file.isDeduplicated()) {
+      return;
+    }
+    int numBlocks = file.numBlocks();
+    for (int i = 0; i < numBlocks; i++) {
+      HBlockKey key = new HBlockKey(file.getFileId(), i);
+      segment(key).remove(key);
+    }
+  }
+
+  public boolean isOffHeap() {
+    return offHeap;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Returns the size of the largest block that is cached, the share of the byte budget of a
+   * segment.
+   */
+  public long getMaxBlockSize() {
+    return maxBytes / SEGMENTS;
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * Returns the number of blocks not cached as they are larger than {@link #getMaxBlockSize()}.
+   */
+  public long getOversized() {
+    return oversized.sum();
+  }
+
+  private Segment segment(HBlockKey key) {
+    int hash = key.hashCode();
+    return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    return offHeap ? 0 : bytes();
+  }
+
+  /**
+   * Returns the number of bytes cached in direct buffers.
+   */
+  public long getOffHeapBytes() {
+    return offHeap ? bytes() : 0;
+  }
+
+  /**
+   * Returns the direct memory allocated by an off-heap cache, which stays allocated once the
+   * cache has filled. Add it to the direct memory needed besides the cache when sizing
+   * -XX:MaxDirectMemorySize.
+   */
+  public long getOffHeapAllocatedBytes() {
+    long allocated = 0;
+    for (Segment segment : segments) {
+      allocated += segment.directBytes();
+    }
+    return allocated;
+  }
+
+  private long bytes() {
+    long bytes = 0;
+    for (Segment segment : segments) {
+      bytes += segment.bytes();
+    }
+    return bytes;
+  }
+
+  @Override
+  public Collection<Accountable> getChildResources() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public String toString() {
+    return "HBlockCache(maxBytes=" + maxBytes + ",offHeap=" + offHeap + ",hits=" + getHits()
+        + ",misses=" + getMisses() + ",evictions=" + getEvictions() + ",oversized="
+        + getOversized() + ")";
+  }
+
+  private static final class Segment {
+
+    private final LinkedHashMap<HBlockKey, Entry> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private final Pages pages;
+    private long bytes;
+
+    Segment(long maxBytes, boolean offHeap) {
+      this.maxBytes = maxBytes;
+      this.pages = offHeap ? new Pages(maxBytes) : null;
+    }
+
+    synchronized ByteBuffer get(HBlockKey key) {
+      Entry entry = blocks.get(key);
+      if (entry == null) {
+        return null;
+      }
+      return entry.block != null ? entry.block : ByteBuffer.wrap(pages.read(entry));
+    }
+
+    synchronized boolean contains(HBlockKey key) {
+      return blocks.containsKey(key);
+    }
+
+    synchronized int put(HBlockKey key, ByteBuffer block) {
+      remove(key);
+      int length = block.remaining();
+      int numPages = Pages.pagesFor(length);
+      int evicted = 0;
+      Iterator<Entry> it = blocks.values().iterator();
+      while ((bytes + length > maxBytes || pages != null && pages.free() < numPages)
+          && it.hasNext()) {
+        release(it.next());
+        it.remove();
+        evicted++;
+      }
+      blocks.put(key, pages != null ? pages.write(block) : new Entry(block));
+      bytes += length;
+      return evicted;
+    }
+
+    synchronized void remove(HBlockKey key) {
+      Entry entry = blocks.remove(key);
+      if (entry != null) {
+        release(entry);
+      }
+    }
+
+    private void release(Entry entry) {
+      bytes -= entry.length;
+      if (pages != null) {
+        pages.release(entry);
+      }
+    }
+
+    synchronized long bytes() {
+      return bytes;
+    }
+
+    synchronized long directBytes() {
+      return pages != null ? pages.allocatedBytes() : 0;
+    }
+  }
+
+  private static final class Entry {
+
+    private final ByteBuffer block;
+    private final int length;
+    private final int[] pages;
+
+    Entry(ByteBuffer block) {
+      this.block = block;
+      this.length = block.remaining();
+      this.pages = null;
+    }
+
+    Entry(int length, int[] pages) {
+      this.block = null;
+      this.length = length;
+      this.pages = pages;
+    }
+  }
+
+  /**
+   * Direct memory of a segment, allocated in slabs as needed up to the size of the segment and
+   * handed out in pages. A block takes as many pages as it needs, which do not have to be
+   * adjacent, so freed pages are reused by any block without fragmenting the slabs. Only used
+   * while holding the lock of the segment.
+   */
+  private static final class Pages {
+
+    private static final int PAGE_SIZE = 1024;
+    private static final int PAGES_PER_SLAB = 1024;
+
+    private final ByteBuffer[] slabs;
+    private final int numPages;
+    private final int[] freePages;
+    private int freeCount;
+    private int unused;
+
+    Pages(long maxBytes) {
+      numPages = pagesFor(maxBytes);
+      slabs = new ByteBuffer[(numPages + PAGES_PER_SLAB - 1) / PAGES_PER_SLAB];
+      freePages = new int[numPages];
+    }
+
+    static int pagesFor(long bytes) {
+      return (int) ((bytes + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
+
+    int free() {
+      return freeCount + numPages - unused;
+    }
+
+    Entry write(ByteBuffer block) {
+      ByteBuffer source = block.duplicate();
+      int end = source.limit();
+      int[] pages = new int[pagesFor(source.remaining())];
+      for (int i = 0; i < pages.length; i++) {
+        pages[i] = freeCount > 0 ? freePages[--freeCount] : unused++;
+        source.limit(Math.min(source.position() + PAGE_SIZE, end));
+        page(pages[i]).put(source);
+      }
+      return new Entry(block.remaining(), pages);
+    }
+
+    byte[] read(Entry entry) {
+      byte[] block = new byte[entry.length];
+      for (int i = 0; i < entry.pages.length; i++) {
+        int offset = i * PAGE_SIZE;
+        page(entry.pages[i]).get(block, offset, Math.min(PAGE_SIZE, block.length - offset));
+      }
+      return block;
+    }
+
+    void release(Entry entry) {
+      for (int page : entry.pages) {
+        freePages[freeCount++] = page;
+      }
+    }
+
+    long allocatedBytes() {
+      long allocated = 0;
+      for (ByteBuffer slab : slabs) {
+        if (slab != null) {
+          allocated += slab.capacity();
+        }
+      }
+      return allocated;
+    }
+
+    private ByteBuffer page(int page) {
+      int index = page / PAGES_PER_SLAB;
+      ByteBuffer slab = slabs[index];
+      if (slab == null) {
+        int slabPages = Math.min(PAGES_PER_SLAB, numPages - index * PAGES_PER_SLAB);
+        slab = ByteBuffer.allocateDirect(slabPages * PAGE_SIZE);
+        slabs[index] = slab;
+      }
+      slab.clear();
+      slab.position(page % PAGES_PER_SLAB * PAGE_SIZE);
+      return slab;
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.core.PartitionAware;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+import com.netradius.lucene.hazelcast.serializer.HazelcastDataSerializableFactory;
+
+import java.io.IOException;
+
+/**
+ * Key of a single content block of a file in HazelcastDirectory. Blocks are keyed by the id of
+ * the file rather than its name so a file can be renamed without moving its content.
+ *
+ * <p>Consecutive blocks of a file are grouped into stripes of {@link #BLOCKS_PER_STRIPE} blocks
+ * which share a partition, so a sequential reader finds the blocks it needs next on the same
+ * member while a large file is still spread over the cluster.
+ *
+ * @author Erik R. Jensen
+ */
+public class HBlockKey implements IdentifiedDataSerializable, PartitionAware<Long> {
+
+  public static final int BLOCKS_PER_STRIPE = 16;
+
+  protected long fileId;
+  protected int index;
+
+  public HBlockKey() {}
+
+  public HBlockKey(long fileId, int index) {
+    this.fileId = fileId;
+    this.index = index;
+  }
+
+  public long getFileId() {
+    return fileId;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * Returns the partition key shared by all blocks in the same stripe of the file.
+   */
+  @Override
+  public Long getPartitionKey() {
+    return fileId * 31 + index / BLOCKS_PER_STRIPE;
+  }
+
+  public int getFactoryId() {
+    return HazelcastDataSerializableFactory.FACTORY_ID;
+  }
+
+  public int getId() {
+    return HazelcastDataSerializableFactory.HBLOCK_KEY_TYPE;
+  }
+
+  public void writeData(ObjectDataOutput objectDataOutput) throws IOException {
+    objectDataOutput.writeLong(fileId);
+    objectDataOutput.writeInt(index);
+  }
+
+  public void readData(ObjectDataInput objectDataInput) throws IOException {
+    fileId = objectDataInput.readLong();
+    index = objectDataInput.readInt();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || o.getClass() != getClass()) {
+      return false;
+    }
+    HBlockKey other = (HBlockKey) o;
+    return fileId == other.fileId && index == other.index;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Long.hashCode(fileId) + index;
+  }
+
+  @Override
+  public String toString() {
+    return "HBlockKey(fileId=" + fileId + ",index=" + index + ")";
+  }
+}
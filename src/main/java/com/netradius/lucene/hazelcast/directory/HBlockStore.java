@@ -0,0 +1,99 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link HMapStore} of the blocks map of an index. After a restart only the blocks of the files
+ * loaded by the {@link HFileStore} of the index are loaded. Blocks of deduplicated files keep the
+ * reference counts they had, including references of files which are not loaded, so such blocks
+ * are kept until the index is rebuilt.
+ *
+ * @author Erik R. Jensen
+ */
+public class HBlockStore extends HMapStore<HBlockKey, byte[]> {
+
+  /**
+   * Suffix of the name of a blocks map, following the name of the metadata map.
+   */
+  public static final String MAP_SUFFIX = "-blocks";
+
+  private static final int KEY_SIZE = 12;
+  private static final int CONTENT_KEY_SIZE = 16;
+
+  @Override
+  protected byte[] encodeKey(HBlockKey key) {
+    if (key instanceof HContentKey) {
+      HContentKey contentKey = (HContentKey) key;
+      return ByteBuffer.allocate(CONTENT_KEY_SIZE).putLong(contentKey.getHigh())
+          .putLong(contentKey.getLow()).array();
+    }
+    return ByteBuffer.allocate(KEY_SIZE).putLong(key.getFileId()).putInt(key.getIndex()).array();
+  }
+
+  @Override
+  protected HBlockKey decodeKey(byte[] key) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(key);
+    if (key.length == CONTENT_KEY_SIZE) {
+      return new HContentKey(buffer.getLong(), buffer.getLong());
+    }
+    if (key.length != KEY_SIZE) {
+      throw new IOException("Invalid block key of " + key.length + " bytes in " + path);
+    }
+    return new HBlockKey(buffer.getLong(), buffer.getInt());
+  }
+
+  @Override
+  protected byte[] encodeValue(byte[] value) {
+    return value;
+  }
+
+  @Override
+  protected byte[] decodeValue(byte[] value) {
+    return value;
+  }
+
+  @Override
+  protected Collection<HBlockKey> select(Collection<HBlockKey> keys) throws IOException {
+    if (!mapName.endsWith(MAP_SUFFIX)) {
+      return keys;
+    }
+    HFileStore files = new HFileStore();
+    files.open(hazelcastInstance, root,
+        mapName.substring(0, mapName.length() - MAP_SUFFIX.length()), true);
+    Map<String, HFile> live;
+    try {
+      live = files.liveFiles(this, new HashSet<>(keys));
+    } finally {
+      files.destroy();
+    }
+    if (live == null) {
+      return keys;
+    }
+    Set<Long> fileIds = new HashSet<>();
+    Set<HBlockKey> contentKeys = new HashSet<>();
+    for (HFile file : live.values()) {
+      fileIds.add(file.getFileId());
+      // block tables of live files are loaded, unless missing
+      if (file.isDeduplicated() && file.isBlockTableLoaded()) {
+        for (int i = 0; i < file.numBlocks(); i++) {
+          contentKeys.add(file.blockKey(i));
+        }
+      }
+    }
+    List<HBlockKey> selected = new ArrayList<>();
+    for (HBlockKey key : keys) {
+      if (key instanceof HContentKey ? contentKeys.contains(key)
+          : fileIds.contains(key.getFileId())) {
+        selected.add(key);
+      }
+    }
+    return selected;
+  }
+}
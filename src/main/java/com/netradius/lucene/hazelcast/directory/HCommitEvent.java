@@ -0,0 +1,91 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+import com.netradius.lucene.hazelcast.serializer.HazelcastDataSerializableFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Published by a HazelcastDirectory when a commit point is written, so readers on other nodes
+ * can reopen right away instead of polling. Lists the files the commit references that the
+ * previous commit seen by the publishing directory did not, along with their lengths.
+ *
+ * @author Erik R. Jensen
+ */
+public class HCommitEvent implements IdentifiedDataSerializable {
+
+  protected String indexName;
+  protected String segmentsFileName;
+  protected long generation;
+  protected Map<String, Long> newFiles = new LinkedHashMap<>();
+
+  public HCommitEvent() {}
+
+  public HCommitEvent(String indexName, String segmentsFileName, long generation,
+      Map<String, Long> newFiles) {
+    this.indexName = indexName;
+    this.segmentsFileName = segmentsFileName;
+    this.generation = generation;
+    this.newFiles = newFiles;
+  }
+
+  public String getIndexName() {
+    return indexName;
+  }
+
+  public String getSegmentsFileName() {
+    return segmentsFileName;
+  }
+
+  public long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Returns the lengths of the files new in this commit by name, including the segments file.
+   */
+  public Map<String, Long> getNewFiles() {
+    return Collections.unmodifiableMap(newFiles);
+  }
+
+  public int getFactoryId() {
+    return HazelcastDataSerializableFactory.FACTORY_ID;
+  }
+
+  public int getId() {
+    return HazelcastDataSerializableFactory.HCOMMIT_EVENT_TYPE;
+  }
+
+  public void writeData(ObjectDataOutput objectDataOutput) throws IOException {
+    objectDataOutput.writeUTF(indexName);
+    objectDataOutput.writeUTF(segmentsFileName);
+    objectDataOutput.writeLong(generation);
+    objectDataOutput.writeInt(newFiles.size());
+    for (Map.Entry<String, Long> file : newFiles.entrySet()) {
+      objectDataOutput.writeUTF(file.getKey());
+      objectDataOutput.writeLong(file.getValue());
+    }
+  }
+
+  public void readData(ObjectDataInput objectDataInput) throws IOException {
+    indexName = objectDataInput.readUTF();
+    segmentsFileName = objectDataInput.readUTF();
+    generation = objectDataInput.readLong();
+    int count = objectDataInput.readInt();
+    newFiles = new LinkedHashMap<>();
+    for (int i = 0; i < count; i++) {
+      newFiles.put(objectDataInput.readUTF(), objectDataInput.readLong());
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "HCommitEvent(indexName=" + indexName + ",segmentsFileName=" + segmentsFileName
+        + ",generation=" + generation + ",newFiles=" + newFiles + ")";
+  }
+}
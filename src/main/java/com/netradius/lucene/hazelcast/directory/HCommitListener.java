@@ -0,0 +1,18 @@
+package com.netradius.lucene.hazelcast.directory;
+
+/**
+ * Receives the commit events of a HazelcastDirectory, from every node writing to the index.
+ * Called on a Hazelcast event thread, so implementations should hand off long running work such
+ * as reopening a reader.
+ *
+ * @author Erik R. Jensen
+ */
+public interface HCommitListener {
+
+  /**
+   * Called when a commit point has been written.
+   *
+   * @param event the commit
+   */
+  void onCommit(HCommitEvent event);
+}
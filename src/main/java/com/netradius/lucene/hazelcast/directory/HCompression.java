@@ -0,0 +1,116 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import org.apache.lucene.codecs.compressing.CompressionMode;
+import org.apache.lucene.codecs.compressing.Compressor;
+import org.apache.lucene.codecs.compressing.Decompressor;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.RAMOutputStream;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compression applied to the content blocks of a file, chosen per file type when the file is
+ * created. Uses the pure Java codecs Lucene compresses stored fields with, LZ4 for {@link #FAST}
+ * and deflate for {@link #HIGH}. Compressors keep state between calls, so each thread gets its
+ * own.
+ *
+ * @author Erik R. Jensen
+ */
+public enum HCompression {
+
+  NONE(0, null),
+  FAST(1, CompressionMode.FAST),
+  HIGH(2, CompressionMode.HIGH_COMPRESSION);
+
+  private final byte id;
+  private final CompressionMode mode;
+  private final ThreadLocal<Compressor> compressors;
+  private final ThreadLocal<Decompressor> decompressors;
+  private final ThreadLocal<RAMOutputStream> outputs = new ThreadLocal<RAMOutputStream>() {
+    @Override
+    protected RAMOutputStream initialValue() {
+      return new RAMOutputStream();
+    }
+  };
+
+  HCompression(int id, final CompressionMode mode) {
+    this.id = (byte) id;
+    this.mode = mode;
+    this.compressors = new ThreadLocal<Compressor>() {
+      @Override
+      protected Compressor initialValue() {
+        return mode.newCompressor();
+      }
+    };
+    this.decompressors = new ThreadLocal<Decompressor>() {
+      @Override
+      protected Decompressor initialValue() {
+        return mode.newDecompressor();
+      }
+    };
+  }
+
+  /**
+   * Returns the id written to the file metadata.
+   */
+  public byte getId() {
+    return id;
+  }
+
+  /**
+   * Returns the compression with an id.
+   *
+   * @param id the id
+   * @return the compression
+   * @throws IOException if the id is unknown
+   */
+  public static HCompression forId(byte id) throws IOException {
+    for (HCompression compression : values()) {
+      if (compression.id == id) {
+        return compression;
+      }
+    }
+    throw new IOException("Unknown block compression " + id);
+  }
+
+  /**
+   * Compresses a block.
+   *
+   * @param block the block
+   * @return the compressed block, or the block itself if there is no compression
+   * @throws IOException if the block could not be compressed
+   */
+  public byte[] compress(byte[] block) throws IOException {
+    if (mode == null) {
+      return block;
+    }
+    RAMOutputStream out = outputs.get();
+    out.reset();
+    compressors.get().compress(block, 0, block.length, out);
+    byte[] compressed = new byte[(int) out.getFilePointer()];
+    out.writeTo(compressed, 0);
+    return compressed;
+  }
+
+  /**
+   * Decompresses a block.
+   *
+   * @param block the compressed block
+   * @param length the length of the block before it was compressed
+   * @return the block, or the given block if there is no compression
+   * @throws IOException if the block is corrupt
+   */
+  public byte[] decompress(byte[] block, int length) throws IOException {
+    if (mode == null) {
+      return block;
+    }
+    BytesRef bytes = new BytesRef();
+    decompressors.get().decompress(new ByteArrayDataInput(block), length, 0, length, bytes);
+    if (bytes.offset == 0 && bytes.bytes.length == length) {
+      return bytes.bytes;
+    }
+    return Arrays.copyOfRange(bytes.bytes, bytes.offset, bytes.offset + bytes.length);
+  }
+}
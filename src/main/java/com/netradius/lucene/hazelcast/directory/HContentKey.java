@@ -0,0 +1,106 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.netradius.lucene.hazelcast.serializer.HazelcastDataSerializableFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Key of a content block of a deduplicated file, named by the first 128 bits of the SHA-256 hash
+ * of the block as stored instead of the file and index it belongs to. Identical blocks of any
+ * files of an index share a single entry, which records the blocks referencing it, see
+ * {@link HContentProcessor}.
+ *
+ * <p>Content keys are spread over the cluster by their hash, as blocks of a deduplicated file
+ * may be shared with any other file.
+ *
+ * @author Erik R. Jensen
+ */
+public class HContentKey extends HBlockKey {
+
+  private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("SHA-256 is not available", ex);
+    }
+  });
+
+  private long high;
+  private long low;
+
+  public HContentKey() {}
+
+  public HContentKey(long high, long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  /**
+   * Returns the key of a block.
+   *
+   * @param block the block as stored
+   * @return the key
+   */
+  public static HContentKey of(byte[] block) {
+    MessageDigest digest = DIGESTS.get();
+    ByteBuffer hash = ByteBuffer.wrap(digest.digest(block));
+    return new HContentKey(hash.getLong(), hash.getLong());
+  }
+
+  public long getHigh() {
+    return high;
+  }
+
+  public long getLow() {
+    return low;
+  }
+
+  @Override
+  public Long getPartitionKey() {
+    return high;
+  }
+
+  @Override
+  public int getId() {
+    return HazelcastDataSerializableFactory.HCONTENT_KEY_TYPE;
+  }
+
+  @Override
+  public void writeData(ObjectDataOutput objectDataOutput) throws IOException {
+    objectDataOutput.writeLong(high);
+    objectDataOutput.writeLong(low);
+  }
+
+  @Override
+  public void readData(ObjectDataInput objectDataInput) throws IOException {
+    high = objectDataInput.readLong();
+    low = objectDataInput.readLong();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof HContentKey)) {
+      return false;
+    }
+    HContentKey other = (HContentKey) o;
+    return high == other.high && low == other.low;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) high;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("HContentKey(%016x%016x)", high, low);
+  }
+}
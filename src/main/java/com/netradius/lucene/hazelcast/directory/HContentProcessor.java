@@ -0,0 +1,202 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.map.EntryBackupProcessor;
+import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+import com.netradius.lucene.hazelcast.serializer.HazelcastDataSerializableFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Entry processor referencing a block keyed by {@link HContentKey}. The entry holds the block as
+ * stored followed by the blocks referencing it, each as the id of its file and its index, and
+ * their number in the last {@link #COUNT_SIZE} bytes, so the references change atomically with
+ * the block on the partition owning it. A writer first adds a reference without the block and
+ * only sends the block if the cluster does not hold it yet, and the entry is removed when its
+ * last reference is released.
+ *
+ * <p>Adding or releasing the reference of a block is idempotent, so an operation retried after
+ * a timeout or a migration does not count a block twice or release a block still referenced.
+ *
+ * @author Erik R. Jensen
+ */
+public class HContentProcessor implements EntryProcessor<HBlockKey, byte[]>,
+    EntryBackupProcessor<HBlockKey, byte[]>, IdentifiedDataSerializable {
+
+  public static final int COUNT_SIZE = 4;
+  public static final int REFERENCE_SIZE = 12;
+
+  // EntryProcessor is Serializable, instances are still serialized through the factory
+  private static final long serialVersionUID = 2L;
+
+  private static final byte ADD = 0;
+  private static final byte RELEASE = 1;
+  private static final byte STAT = 2;
+
+  private byte operation;
+  private byte[] block;
+  private long fileId;
+  private int index;
+
+  public HContentProcessor() {}
+
+  private HContentProcessor(byte operation, byte[] block, long fileId, int index) {
+    this.operation = operation;
+    this.block = block;
+    this.fileId = fileId;
+    this.index = index;
+  }
+
+  /**
+   * Returns a processor adding the reference of a block of a file. Returns true if the block was
+   * stored already, or else false after storing the block if it is given.
+   *
+   * @param block the block as stored, or null to only reference a block already stored
+   * @param fileId the id of the file referencing the block
+   * @param index the index of the block in the file
+   * @return the processor
+   */
+  public static HContentProcessor add(byte[] block, long fileId, int index) {
+    return new HContentProcessor(ADD, block, fileId, index);
+  }
+
+  /**
+   * Returns a processor releasing the reference of a block of a file, which returns the number
+   * of references left.
+   *
+   * @param fileId the id of the file referencing the block
+   * @param index the index of the block in the file
+   * @return the processor
+   */
+  public static HContentProcessor release(long fileId, int index) {
+    return new HContentProcessor(RELEASE, null, fileId, index);
+  }
+
+  /**
+   * Returns a read only processor returning the length of a block and its number of references,
+   * or null if it is not stored.
+   */
+  public static HContentProcessor stat() {
+    return new HContentProcessor(STAT, null, 0, 0);
+  }
+
+  /**
+   * Returns the length of the block held by an entry.
+   *
+   * @param value the value of the entry
+   * @return the length of the block as stored
+   */
+  public static int contentLength(byte[] value) {
+    return value.length - COUNT_SIZE - references(value) * REFERENCE_SIZE;
+  }
+
+  /**
+   * Returns the number of references to the block held by an entry.
+   *
+   * @param value the value of the entry
+   * @return the number of references
+   */
+  public static int references(byte[] value) {
+    return ByteBuffer.wrap(value).getInt(value.length - COUNT_SIZE);
+  }
+
+  private int findReference(byte[] value) {
+    ByteBuffer buffer = ByteBuffer.wrap(value);
+    for (int offset = contentLength(value); offset < value.length - COUNT_SIZE;
+        offset += REFERENCE_SIZE) {
+      if (buffer.getLong(offset) == fileId && buffer.getInt(offset + 8) == index) {
+        return offset;
+      }
+    }
+    return -1;
+  }
+
+  private byte[] addReference(byte[] value) {
+    int offset = value.length - COUNT_SIZE;
+    byte[] added = Arrays.copyOf(value, value.length + REFERENCE_SIZE);
+    ByteBuffer.wrap(added).putLong(offset, fileId).putInt(offset + 8, index)
+        .putInt(offset + REFERENCE_SIZE, references(value) + 1);
+    return added;
+  }
+
+  private static byte[] removeReference(byte[] value, int offset) {
+    byte[] removed = new byte[value.length - REFERENCE_SIZE];
+    System.arraycopy(value, 0, removed, 0, offset);
+    System.arraycopy(value, offset + REFERENCE_SIZE, removed, offset,
+        removed.length - offset - COUNT_SIZE);
+    ByteBuffer.wrap(removed).putInt(removed.length - COUNT_SIZE, references(value) - 1);
+    return removed;
+  }
+
+  @Override
+  public Object process(Map.Entry<HBlockKey, byte[]> entry) {
+    byte[] value = entry.getValue();
+    switch (operation) {
+      case ADD:
+        if (value != null) {
+          if (findReference(value) < 0) {
+            entry.setValue(addReference(value));
+          }
+          return Boolean.TRUE;
+        }
+        if (block != null) {
+          entry.setValue(addReference(Arrays.copyOf(block, block.length + COUNT_SIZE)));
+        }
+        return Boolean.FALSE;
+      case RELEASE:
+        if (value == null) {
+          return 0;
+        }
+        int offset = findReference(value);
+        if (offset < 0) {
+          return references(value);
+        }
+        int references = references(value) - 1;
+        entry.setValue(references > 0 ? removeReference(value, offset) : null);
+        return references;
+      default:
+        return value != null ? new long[] {contentLength(value), references(value)} : null;
+    }
+  }
+
+  @Override
+  public void processBackup(Map.Entry<HBlockKey, byte[]> entry) {
+    process(entry);
+  }
+
+  @Override
+  public EntryBackupProcessor<HBlockKey, byte[]> getBackupProcessor() {
+    return operation == STAT ? null : this;
+  }
+
+  @Override
+  public int getFactoryId() {
+    return HazelcastDataSerializableFactory.FACTORY_ID;
+  }
+
+  @Override
+  public int getId() {
+    return HazelcastDataSerializableFactory.HCONTENT_PROCESSOR_TYPE;
+  }
+
+  @Override
+  public void writeData(ObjectDataOutput objectDataOutput) throws IOException {
+    objectDataOutput.writeByte(operation);
+    objectDataOutput.writeByteArray(block);
+    objectDataOutput.writeLong(fileId);
+    objectDataOutput.writeInt(index);
+  }
+
+  @Override
+  public void readData(ObjectDataInput objectDataInput) throws IOException {
+    operation = objectDataInput.readByte();
+    block = objectDataInput.readByteArray();
+    fileId = objectDataInput.readLong();
+    index = objectDataInput.readInt();
+  }
+}
@@ -0,0 +1,126 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceAware;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.Member;
+import com.hazelcast.core.PartitionService;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+import com.netradius.lucene.hazelcast.serializer.HazelcastDataSerializableFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Task copying the content blocks of a file on the cluster members, so the content never passes
+ * through the client. When submitted to all members each member copies the blocks it owns, or
+ * copies all blocks when local only is off.
+ *
+ * @author Erik R. Jensen
+ */
+public class HCopyBlocksTask
+    implements Callable<Integer>, HazelcastInstanceAware, IdentifiedDataSerializable {
+
+  private static final int MAX_PENDING_WRITES = 16;
+
+  private String sourceMap;
+  private long sourceFileId;
+  private String destMap;
+  private long destFileId;
+  private int numBlocks;
+  private boolean localOnly;
+  private transient HazelcastInstance hazelcastInstance;
+
+  public HCopyBlocksTask() {}
+
+  public HCopyBlocksTask(String sourceMap, long sourceFileId, String destMap, long destFileId,
+      int numBlocks, boolean localOnly) {
+    this.sourceMap = sourceMap;
+    this.sourceFileId = sourceFileId;
+    this.destMap = destMap;
+    this.destFileId = destFileId;
+    this.numBlocks = numBlocks;
+    this.localOnly = localOnly;
+  }
+
+  @Override
+  public void setHazelcastInstance(HazelcastInstance hazelcastInstance) {
+    this.hazelcastInstance = hazelcastInstance;
+  }
+
+  /**
+   * Copies the blocks.
+   *
+   * @return the number of blocks copied
+   * @throws Exception if a block is missing or could not be written
+   */
+  @Override
+  public Integer call() throws Exception {
+    IMap<HBlockKey, byte[]> source = hazelcastInstance.getMap(sourceMap);
+    IMap<HBlockKey, byte[]> dest = hazelcastInstance.getMap(destMap);
+    PartitionService partitionService = hazelcastInstance.getPartitionService();
+    Deque<Future<Void>> pendingWrites = new ArrayDeque<>();
+    int copied = 0;
+    for (int i = 0; i < numBlocks; i++) {
+      HBlockKey key = new HBlockKey(sourceFileId, i);
+      if (localOnly && !isOwned(partitionService, key)) {
+        continue;
+      }
+      byte[] block = source.get(key);
+      if (block == null) {
+        throw new IOException("Missing block " + i + " of file " + sourceFileId);
+      }
+      if (pendingWrites.size() >= MAX_PENDING_WRITES) {
+        pendingWrites.poll().get();
+      }
+      pendingWrites.add(dest.setAsync(new HBlockKey(destFileId, i), block));
+      copied++;
+    }
+    for (Future<Void> write : pendingWrites) {
+      write.get();
+    }
+    return copied;
+  }
+
+  private static boolean isOwned(PartitionService partitionService, Object key) {
+    // no member copies the blocks of a partition without an owner, so the caller copies the
+    // file again from a single member
+    Member owner = partitionService.getPartition(key).getOwner();
+    return owner != null && owner.localMember();
+  }
+
+  @Override
+  public int getFactoryId() {
+    return HazelcastDataSerializableFactory.FACTORY_ID;
+  }
+
+  @Override
+  public int getId() {
+    return HazelcastDataSerializableFactory.HCOPY_BLOCKS_TASK_TYPE;
+  }
+
+  @Override
+  public void writeData(ObjectDataOutput objectDataOutput) throws IOException {
+    objectDataOutput.writeUTF(sourceMap);
+    objectDataOutput.writeLong(sourceFileId);
+    objectDataOutput.writeUTF(destMap);
+    objectDataOutput.writeLong(destFileId);
+    objectDataOutput.writeInt(numBlocks);
+    objectDataOutput.writeBoolean(localOnly);
+  }
+
+  @Override
+  public void readData(ObjectDataInput objectDataInput) throws IOException {
+    sourceMap = objectDataInput.readUTF();
+    sourceFileId = objectDataInput.readLong();
+    destMap = objectDataInput.readUTF();
+    destFileId = objectDataInput.readLong();
+    numBlocks = objectDataInput.readInt();
+    localOnly = objectDataInput.readBoolean();
+  }
+}
@@ -0,0 +1,182 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.core.ExecutionCallback;
+import com.hazelcast.core.ICompletableFuture;
+import com.hazelcast.core.IMap;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Content addressed storage of the blocks of deduplicated files. Blocks are keyed by a hash of
+ * their content and referenced by file id and block index, so identical blocks are stored and
+ * sent to the cluster once, see {@link HContentKey} and {@link HContentProcessor}.
+ *
+ * @author Erik R. Jensen
+ */
+public class HDedup {
+
+  private final HazelcastDirectory directory;
+  private final IMap<HBlockKey, byte[]> blocks;
+  private final HDirectoryMetrics metrics;
+
+  HDedup(HazelcastDirectory directory) {
+    this.directory = directory;
+    this.blocks = directory.blocks;
+    this.metrics = directory.metrics;
+  }
+
+  /**
+   * Stores a block of a deduplicated file asynchronously. The block is referenced by its content
+   * hash, and only sent if the cluster does not hold an identical block yet, which takes a second
+   * round trip.
+   *
+   * @param file the file to write to
+   * @param index the index of the block
+   * @param block the block as stored
+   * @return a future completing once the block is referenced
+   */
+  Future<Void> write(HFile file, int index, byte[] block) {
+    HContentKey key = file.setBlockHash(index, block);
+    // uncompressed blocks are the buffer of the writer, which reuses it before the block is sent
+    byte[] content = file.getCompression() == HCompression.NONE ? block.clone() : block;
+    CompletableFuture<Void> written = new CompletableFuture<>();
+    ExecutionCallback<Object> stored = new ExecutionCallback<Object>() {
+      @Override
+      public void onResponse(Object response) {
+        written.complete(null);
+      }
+
+      @Override
+      public void onFailure(Throwable throwable) {
+        written.completeExceptionally(throwable);
+      }
+    };
+    long fileId = file.getFileId();
+    process(key, HContentProcessor.add(null, fileId, index)).andThen(
+        new ExecutionCallback<Object>() {
+          @Override
+          public void onResponse(Object found) {
+            if (Boolean.TRUE.equals(found)) {
+              metrics.dedupHits.increment();
+              metrics.dedupHitBytes.add(content.length);
+              written.complete(null);
+            } else {
+              metrics.blockWrites.increment();
+              metrics.blockWriteBytes.add(content.length);
+              process(key, HContentProcessor.add(content, fileId, index)).andThen(stored);
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable throwable) {
+            written.completeExceptionally(throwable);
+          }
+        });
+    return written;
+  }
+
+  /**
+   * Releases the reference of a block of a file asynchronously, removing the block once no file
+   * references it.
+   *
+   * @param key the content key of the block
+   * @param fileId the id of the file referencing the block
+   * @param index the index of the block in the file
+   * @return a future completing once the reference is released
+   */
+  Future<Object> release(HBlockKey key, long fileId, int index) {
+    return process(key, HContentProcessor.release(fileId, index));
+  }
+
+  /**
+   * Adds a reference to every block of a deduplicated file taking the blocks of another file.
+   *
+   * @param file the file
+   * @param src the name of the file the blocks are taken from
+   * @throws IOException if a block is missing or could not be referenced
+   */
+  void reference(HFile file, String src) throws IOException {
+    List<Future<Object>> futures = new ArrayList<>();
+    for (int i = 0; i < file.numBlocks(); i++) {
+      futures.add(process(file.blockKey(i), HContentProcessor.add(null, file.getFileId(), i)));
+    }
+    List<Integer> referenced = new ArrayList<>();
+    IOException failure = null;
+    for (int i = 0; i < futures.size() && !(failure instanceof InterruptedIOException); i++) {
+      try {
+        if (Boolean.TRUE.equals(futures.get(i).get())) {
+          referenced.add(i);
+        } else if (failure == null) {
+          failure = new IOException("Missing block " + i + " of " + src);
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        failure = new InterruptedIOException("Interrupted while copying " + src);
+      } catch (ExecutionException ex) {
+        failure = new IOException("Failed to copy " + src, ex.getCause());
+      }
+    }
+    if (failure != null) {
+      for (int index : referenced) {
+        release(file.blockKey(index), file.getFileId(), index);
+      }
+      throw failure;
+    }
+  }
+
+  /**
+   * Reports how much deduplication saves in the index. The blocks referenced by the block tables
+   * of all files are counted here, and the members holding the distinct blocks return their sizes
+   * without their content.
+   *
+   * @return the report
+   * @throws IOException if a block table could not be loaded
+   */
+  HDedupReport report() throws IOException {
+    List<HFile> files = new ArrayList<>();
+    for (HFile file : directory.store.values()) {
+      if (file.isDeduplicated()) {
+        files.add(file);
+      }
+    }
+    directory.loadBlockTables(files);
+    Map<HBlockKey, Integer> references = new HashMap<>();
+    for (HFile file : files) {
+      for (int i = 0; i < file.numBlocks(); i++) {
+        references.merge(file.blockKey(i), 1, Integer::sum);
+      }
+    }
+    long referenceCount = 0;
+    long storedBlocks = 0;
+    long referencedBytes = 0;
+    long storedBytes = 0;
+    if (!references.isEmpty()) {
+      for (Map.Entry<HBlockKey, Object> entry : blocks.executeOnKeys(references.keySet(),
+          HContentProcessor.stat()).entrySet()) {
+        long[] stat = (long[]) entry.getValue();
+        if (stat != null) {
+          int count = references.get(entry.getKey());
+          referenceCount += count;
+          storedBlocks++;
+          referencedBytes += stat[0] * count;
+          storedBytes += stat[0];
+        }
+      }
+    }
+    return new HDedupReport(directory.store.getName(), referenceCount, storedBlocks,
+        referencedBytes, storedBytes);
+  }
+
+  @SuppressWarnings("unchecked")
+  private ICompletableFuture<Object> process(HBlockKey key, HContentProcessor processor) {
+    return metrics.track(blocks.submitToKey(key, processor));
+  }
+}
@@ -0,0 +1,75 @@
+package com.netradius.lucene.hazelcast.directory;
+
+/**
+ * Deduplication achieved by the files of an index, as returned by
+ * {@link HazelcastDirectory#dedupReport()}. Only the blocks of deduplicated files are counted.
+ *
+ * @author Erik R. Jensen
+ */
+public final class HDedupReport {
+
+  private final String indexName;
+  private final long references;
+  private final long blocks;
+  private final long referencedBytes;
+  private final long storedBytes;
+
+  public HDedupReport(String indexName, long references, long blocks, long referencedBytes,
+      long storedBytes) {
+    this.indexName = indexName;
+    this.references = references;
+    this.blocks = blocks;
+    this.referencedBytes = referencedBytes;
+    this.storedBytes = storedBytes;
+  }
+
+  public String getIndexName() {
+    return indexName;
+  }
+
+  /**
+   * Returns the number of blocks of all files.
+   */
+  public long getReferences() {
+    return references;
+  }
+
+  /**
+   * Returns the number of distinct blocks stored for them.
+   */
+  public long getBlocks() {
+    return blocks;
+  }
+
+  /**
+   * Returns the number of bytes the blocks of all files would take up without deduplication.
+   */
+  public long getReferencedBytes() {
+    return referencedBytes;
+  }
+
+  /**
+   * Returns the number of bytes the distinct blocks take up.
+   */
+  public long getStoredBytes() {
+    return storedBytes;
+  }
+
+  public long getSavedBytes() {
+    return referencedBytes - storedBytes;
+  }
+
+  /**
+   * Returns the referenced bytes per stored byte, 1 if nothing is stored.
+   */
+  public double getRatio() {
+    return storedBytes == 0 ? 1 : (double) referencedBytes / storedBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "HDedupReport(indexName=" + indexName + ",references=" + references + ",blocks="
+        + blocks + ",referencedBytes=" + referencedBytes + ",storedBytes=" + storedBytes
+        + ",ratio=" + String.format("%.2f", getRatio()) + ")";
+  }
+}
@@ -0,0 +1,359 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.core.ExecutionCallback;
+import com.hazelcast.core.ICompletableFuture;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Accountables;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * I/O metrics of a HazelcastDirectory. Everything is kept in striped counters so recording adds
+ * no contention to the read and write paths. Published over JMX by the directory provider and
+ * listed by {@link HazelcastDirectory#getChildResources()}.
+ *
+ * @author Erik R. Jensen
+ */
+public class HDirectoryMetrics implements HDirectoryMetricsMXBean {
+
+  private final String indexName;
+  private final HBlockCache blockCache;
+
+  final HLatencyHistogram openInputLatency = new HLatencyHistogram();
+  final HLatencyHistogram createOutputLatency = new HLatencyHistogram();
+  final HLatencyHistogram renameLatency = new HLatencyHistogram();
+  final HLatencyHistogram deleteLatency = new HLatencyHistogram();
+  final HLatencyHistogram syncLatency = new HLatencyHistogram();
+  final HLatencyHistogram blockFetchLatency = new HLatencyHistogram();
+  final LongAdder blockFetchBytes = new LongAdder();
+  final LongAdder blockWrites = new LongAdder();
+  final LongAdder blockWriteBytes = new LongAdder();
+  final LongAdder dedupHits = new LongAdder();
+  final LongAdder dedupHitBytes = new LongAdder();
+  final LongAdder inFlightOperations = new LongAdder();
+  final LongAdder readAheadFetches = new LongAdder();
+  final LongAdder readAheadHits = new LongAdder();
+  final LongAdder localReads = new LongAdder();
+  final LongAdder uncompressedBytes = new LongAdder();
+  final LongAdder compressedBytes = new LongAdder();
+  final LongAdder compressNanos = new LongAdder();
+  final LongAdder decompressNanos = new LongAdder();
+  final LongAdder quotaThrottles = new LongAdder();
+  final LongAdder quotaRejections = new LongAdder();
+  final LongAdder diskCacheHits = new LongAdder();
+  final AtomicLong nrtBufferedBytes = new AtomicLong();
+  final LongAdder nrtDiscardedFiles = new LongAdder();
+  volatile long indexBytes;
+  volatile HDiskCache diskCache;
+  private final ConcurrentMap<String, LongAdder> bytesRead = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LongAdder> bytesWritten = new ConcurrentHashMap<>();
+
+  private final ExecutionCallback<Object> completion = new ExecutionCallback<Object>() {
+    @Override
+    public void onResponse(Object response) {
+      inFlightOperations.decrement();
+    }
+
+    @Override
+    public void onFailure(Throwable throwable) {
+      inFlightOperations.decrement();
+    }
+  };
+
+  public HDirectoryMetrics(String indexName, HBlockCache blockCache) {
+    this.indexName = indexName;
+    this.blockCache = blockCache;
+  }
+
+  /**
+   * Counts an asynchronous cluster operation as in flight until it completes.
+   *
+   * @param future the operation
+   * @return the operation
+   */
+  <T extends ICompletableFuture<?>> T track(T future) {
+    inFlightOperations.increment();
+    @SuppressWarnings("unchecked")
+    ICompletableFuture<Object> callback = (ICompletableFuture<Object>) future;
+    callback.andThen(completion);
+    return future;
+  }
+
+  /**
+   * Counts bytes read from a file by an input.
+   *
+   * @param fileType the file type
+   * @param bytes the number of bytes
+   */
+  void addBytesRead(String fileType, long bytes) {
+    adder(bytesRead, fileType).add(bytes);
+  }
+
+  /**
+   * Counts bytes written to a file by an output.
+   *
+   * @param fileType the file type
+   * @param bytes the number of bytes
+   */
+  void addBytesWritten(String fileType, long bytes) {
+    adder(bytesWritten, fileType).add(bytes);
+  }
+
+  private static LongAdder adder(ConcurrentMap<String, LongAdder> adders, String fileType) {
+    LongAdder adder = adders.get(fileType);
+    if (adder == null) {
+      adder = adders.computeIfAbsent(fileType, type -> new LongAdder());
+    }
+    return adder;
+  }
+
+  private static Map<String, Long> sums(ConcurrentMap<String, LongAdder> adders) {
+    Map<String, Long> sums = new TreeMap<>();
+    for (Map.Entry<String, LongAdder> entry : adders.entrySet()) {
+      sums.put(entry.getKey(), entry.getValue().sum());
+    }
+    return sums;
+  }
+
+  @Override
+  public String getIndexName() {
+    return indexName;
+  }
+
+  @Override
+  public HLatencyHistogram.Stats getOpenInputLatency() {
+    return openInputLatency.getStats();
+  }
+
+  @Override
+  public HLatencyHistogram.Stats getCreateOutputLatency() {
+    return createOutputLatency.getStats();
+  }
+
+  @Override
+  public HLatencyHistogram.Stats getRenameLatency() {
+    return renameLatency.getStats();
+  }
+
+  @Override
+  public HLatencyHistogram.Stats getDeleteLatency() {
+    return deleteLatency.getStats();
+  }
+
+  @Override
+  public HLatencyHistogram.Stats getSyncLatency() {
+    return syncLatency.getStats();
+  }
+
+  @Override
+  public HLatencyHistogram.Stats getBlockFetchLatency() {
+    return blockFetchLatency.getStats();
+  }
+
+  @Override
+  public long getBlockFetches() {
+    // only blocks fetched synchronously have a latency
+    return blockFetchLatency.getCount() + readAheadFetches.sum();
+  }
+
+  @Override
+  public long getBlockFetchBytes() {
+    return blockFetchBytes.sum();
+  }
+
+  @Override
+  public long getBlockWrites() {
+    return blockWrites.sum();
+  }
+
+  @Override
+  public long getBlockWriteBytes() {
+    return blockWriteBytes.sum();
+  }
+
+  @Override
+  public long getDedupHits() {
+    return dedupHits.sum();
+  }
+
+  @Override
+  public long getDedupHitBytes() {
+    return dedupHitBytes.sum();
+  }
+
+  @Override
+  public long getInFlightOperations() {
+    return inFlightOperations.sum();
+  }
+
+  @Override
+  public Map<String, Long> getBytesReadByType() {
+    return sums(bytesRead);
+  }
+
+  @Override
+  public Map<String, Long> getBytesWrittenByType() {
+    return sums(bytesWritten);
+  }
+
+  @Override
+  public long getBlockCacheHits() {
+    return blockCache.getHits();
+  }
+
+  @Override
+  public long getBlockCacheMisses() {
+    return blockCache.getMisses();
+  }
+
+  @Override
+  public long getBlockCacheEvictions() {
+    return blockCache.getEvictions();
+  }
+
+  @Override
+  public long getBlockCacheOversized() {
+    return blockCache.getOversized();
+  }
+
+  @Override
+  public long getBlockCacheBytes() {
+    return blockCache.ramBytesUsed();
+  }
+
+  @Override
+  public long getBlockCacheOffHeapBytes() {
+    return blockCache.getOffHeapBytes();
+  }
+
+  @Override
+  public long getReadAheadFetches() {
+    return readAheadFetches.sum();
+  }
+
+  @Override
+  public long getReadAheadHits() {
+    return readAheadHits.sum();
+  }
+
+  @Override
+  public long getLocalReads() {
+    return localReads.sum();
+  }
+
+  @Override
+  public double getCompressionRatio() {
+    long compressed = compressedBytes.sum();
+    return compressed == 0 ? 1.0 : (double) uncompressedBytes.sum() / compressed;
+  }
+
+  @Override
+  public long getCompressMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(compressNanos.sum());
+  }
+
+  @Override
+  public long getDecompressMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(decompressNanos.sum());
+  }
+
+  @Override
+  public long getIndexBytes() {
+    return indexBytes;
+  }
+
+  @Override
+  public long getQuotaThrottles() {
+    return quotaThrottles.sum();
+  }
+
+  @Override
+  public long getQuotaRejections() {
+    return quotaRejections.sum();
+  }
+
+  @Override
+  public long getDiskCacheHits() {
+    return diskCacheHits.sum();
+  }
+
+  @Override
+  public long getDiskCacheBytes() {
+    HDiskCache cache = diskCache;
+    return cache == null ? 0 : cache.getBytes();
+  }
+
+  @Override
+  public long getNrtBufferedBytes() {
+    return nrtBufferedBytes.get();
+  }
+
+  @Override
+  public long getNrtDiscardedFiles() {
+    return nrtDiscardedFiles.sum();
+  }
+
+  /**
+   * Returns the metrics as named accountables for
+   * {@link HazelcastDirectory#getChildResources()}.
+   *
+   * @param readAheadBlocks the configured read-ahead depth
+   * @return the accountables
+   */
+  List<Accountable> getChildResources(int readAheadBlocks) {
+    List<Accountable> resources = new ArrayList<>();
+    resources.add(Accountables.namedAccountable("block cache [hits=" + getBlockCacheHits()
+        + ", misses=" + getBlockCacheMisses() + ", evictions=" + getBlockCacheEvictions()
+        + ", oversized=" + getBlockCacheOversized() + ", offHeapBytes="
+        + getBlockCacheOffHeapBytes() + "]", blockCache));
+    resources.add(Accountables.namedAccountable("read-ahead [depth=" + readAheadBlocks
+        + ", fetched=" + getReadAheadFetches() + ", used=" + getReadAheadHits() + "]", 0L));
+    if (diskCache != null) {
+      resources.add(Accountables.namedAccountable("disk cache [hits=" + getDiskCacheHits()
+          + ", bytes=" + getDiskCacheBytes() + "]", 0L));
+    }
+    if (getNrtBufferedBytes() > 0 || getNrtDiscardedFiles() > 0) {
+      resources.add(Accountables.namedAccountable("nrt buffer [discardedFiles="
+          + getNrtDiscardedFiles() + "]", getNrtBufferedBytes()));
+    }
+    if (compressedBytes.sum() > 0) {
+      resources.add(Accountables.namedAccountable(String.format(
+          "compression [ratio=%.2f, compressMillis=%d, decompressMillis=%d]",
+          getCompressionRatio(), getCompressMillis(), getDecompressMillis()), 0L));
+    }
+    if (getLocalReads() > 0) {
+      resources.add(Accountables.namedAccountable("local reads [blocks=" + getLocalReads() + "]",
+          0L));
+    }
+    resources.add(Accountables.namedAccountable("index [bytes=" + getIndexBytes()
+        + ", quotaThrottles=" + getQuotaThrottles() + ", quotaRejections="
+        + getQuotaRejections() + "]", 0L));
+    resources.add(Accountables.namedAccountable("block fetches [" + blockFetchLatency
+        + ", bytes=" + getBlockFetchBytes() + "]", 0L));
+    resources.add(Accountables.namedAccountable("block writes [count=" + getBlockWrites()
+        + ", bytes=" + getBlockWriteBytes() + ", inFlight=" + getInFlightOperations() + "]",
+        0L));
+    if (getDedupHits() > 0) {
+      resources.add(Accountables.namedAccountable("dedup hits [blocks=" + getDedupHits()
+          + ", bytes=" + getDedupHitBytes() + "]", 0L));
+    }
+    resources.add(Accountables.namedAccountable("openInput [" + openInputLatency + "]", 0L));
+    resources.add(Accountables.namedAccountable("createOutput [" + createOutputLatency + "]",
+        0L));
+    resources.add(Accountables.namedAccountable("renameFile [" + renameLatency + "]", 0L));
+    resources.add(Accountables.namedAccountable("deleteFile [" + deleteLatency + "]", 0L));
+    resources.add(Accountables.namedAccountable("sync [" + syncLatency + "]", 0L));
+    resources.add(Accountables.namedAccountable("bytes read " + getBytesReadByType(), 0L));
+    resources.add(Accountables.namedAccountable("bytes written " + getBytesWrittenByType(), 0L));
+    return Collections.unmodifiableList(resources);
+  }
+}
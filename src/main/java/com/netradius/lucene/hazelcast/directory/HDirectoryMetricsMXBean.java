@@ -0,0 +1,92 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of a HazelcastDirectory. Counters are totals since the directory was
+ * opened, latencies are in microseconds.
+ *
+ * @author Erik R. Jensen
+ */
+public interface HDirectoryMetricsMXBean {
+
+  String getIndexName();
+
+  HLatencyHistogram.Stats getOpenInputLatency();
+
+  HLatencyHistogram.Stats getCreateOutputLatency();
+
+  HLatencyHistogram.Stats getRenameLatency();
+
+  HLatencyHistogram.Stats getDeleteLatency();
+
+  HLatencyHistogram.Stats getSyncLatency();
+
+  HLatencyHistogram.Stats getBlockFetchLatency();
+
+  long getBlockFetches();
+
+  long getBlockFetchBytes();
+
+  long getBlockWrites();
+
+  long getBlockWriteBytes();
+
+  /**
+   * Returns the number of blocks of deduplicated files not written because the cluster held an
+   * identical block already.
+   */
+  long getDedupHits();
+
+  long getDedupHitBytes();
+
+  long getInFlightOperations();
+
+  Map<String, Long> getBytesReadByType();
+
+  Map<String, Long> getBytesWrittenByType();
+
+  long getBlockCacheHits();
+
+  long getBlockCacheMisses();
+
+  long getBlockCacheEvictions();
+
+  long getBlockCacheOversized();
+
+  long getBlockCacheBytes();
+
+  long getBlockCacheOffHeapBytes();
+
+  long getReadAheadFetches();
+
+  long getReadAheadHits();
+
+  long getLocalReads();
+
+  double getCompressionRatio();
+
+  long getCompressMillis();
+
+  long getDecompressMillis();
+
+  /**
+   * Returns the size of the index across the cluster as last seen by this directory.
+   */
+  long getIndexBytes();
+
+  long getQuotaThrottles();
+
+  long getQuotaRejections();
+
+  long getDiskCacheHits();
+
+  long getDiskCacheBytes();
+
+  long getNrtBufferedBytes();
+
+  /**
+   * Returns the number of files deleted while buffered, which were never stored in the cluster.
+   */
+  long getNrtDiscardedFiles();
+}
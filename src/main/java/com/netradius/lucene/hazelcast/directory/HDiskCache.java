@@ -0,0 +1,309 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NativeFSLockFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+
+/**
+ * Local disk tier below the block cache. Files read from the cluster are copied whole to a local
+ * directory in the background and read from then on through memory mapping, so repeated reads
+ * of large, mostly cold files cost neither network round trips nor heap. The cluster remains the
+ * source of truth: copies are named after the file id and are only used once their length and
+ * checksum match the file metadata, so they survive restarts without ever serving stale
+ * content. Least recently used copies are deleted once the cache exceeds its size.
+ *
+ * <p>A directory is used by a single cache at a time, guarded by a native lock, so directories
+ * of the same index in one or several processes never evict or overwrite each other's copies. A
+ * cache opened on a directory in use takes the first free numbered subdirectory instead.
+ *
+ * @author Erik R. Jensen
+ */
+@Slf4j
+public class HDiskCache implements Closeable {
+
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final String LOCK_NAME = "write.lock";
+  private static final String INSTANCE_PREFIX = "instance-";
+  private static final int MAX_INSTANCES = 64;
+
+  private final Path path;
+  private final long maxBytes;
+  private final MMapDirectory mmap;
+  private final Lock lock;
+  private final ExecutorService loader;
+  // file id to length, in access order
+  private final LinkedHashMap<Long, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final Set<Long> validated = new HashSet<>();
+  private final Set<Long> loading = new HashSet<>();
+  // invalidated while being copied
+  private final Set<Long> invalidated = new HashSet<>();
+  private long bytes;
+
+  /**
+   * Opens a cache, keeping the valid looking copies left by a previous run.
+   *
+   * @param path the directory to keep copies in
+   * @param maxBytes the maximum number of bytes to keep
+   * @throws IOException if the directory could not be created, locked or listed
+   */
+  public HDiskCache(Path path, long maxBytes) throws IOException {
+    this.maxBytes = maxBytes;
+    Path dir = path;
+    MMapDirectory directory = null;
+    Lock obtained = null;
+    for (int i = 0; obtained == null; i++) {
+      dir = i == 0 ? path : path.resolve(INSTANCE_PREFIX + i);
+      directory = new MMapDirectory(Files.createDirectories(dir), NativeFSLockFactory.INSTANCE);
+      try {
+        obtained = directory.obtainLock(LOCK_NAME);
+      } catch (LockObtainFailedException ex) {
+        directory.close();
+        if (i == MAX_INSTANCES) {
+          throw new IOException("No free disk cache directory in " + path, ex);
+        }
+      }
+    }
+    this.path = dir;
+    this.mmap = directory;
+    this.lock = obtained;
+    this.loader = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "hazelcast-disk-cache-" + path.getFileName());
+      thread.setDaemon(true);
+      return thread;
+    });
+    File[] files = this.path.toFile().listFiles();
+    if (files != null) {
+      // oldest first so recently written copies are evicted last
+      Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+      for (File file : files) {
+        if (file.isDirectory() || file.getName().equals(LOCK_NAME)) {
+          // the directories of other caches and the lock of this one
+          continue;
+        }
+        if (file.getName().endsWith(TEMP_SUFFIX) || !file.getName().matches("\\d+")) {
+          Files.deleteIfExists(file.toPath());
+        } else {
+          entries.put(Long.parseLong(file.getName()), file.length());
+          bytes += file.length();
+        }
+      }
+    }
+    evict();
+  }
+
+  /**
+   * Opens the local copy of a file, validating it first if this has not been done since the
+   * cache was opened. Invalid copies are deleted.
+   *
+   * @param file the file
+   * @param context the context to open the copy with
+   * @return the input or null if there is no valid copy
+   * @throws IOException if the copy could not be opened
+   */
+  public IndexInput openInput(HFileSnapshot file, IOContext context) throws IOException {
+    String name = Long.toString(file.getFileId());
+    boolean valid;
+    synchronized (this) {
+      Long length = entries.get(file.getFileId());
+      if (length == null) {
+        return null;
+      }
+      if (length != file.getLength()) {
+        remove(file.getFileId());
+        return null;
+      }
+      valid = validated.contains(file.getFileId());
+    }
+    if (!valid) {
+      long checksum = checksum(name);
+      synchronized (this) {
+        if (checksum != file.getChecksum()) {
+          log.warn("Discarding local copy of file " + file.getFileId() + " with checksum "
+              + checksum + ", expected " + file.getChecksum());
+          remove(file.getFileId());
+          return null;
+        }
+        validated.add(file.getFileId());
+      }
+    }
+    return mmap.openInput(name, context);
+  }
+
+  private long checksum(String name) throws IOException {
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[64 * 1024];
+    try (IndexInput in = mmap.openInput(name, IOContext.READONCE)) {
+      long remaining = in.length();
+      while (remaining > 0) {
+        int length = (int) Math.min(buffer.length, remaining);
+        in.readBytes(buffer, 0, length);
+        crc.update(buffer, 0, length);
+        remaining -= length;
+      }
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * Copies a file to local disk in the background unless a copy exists or is being made.
+   *
+   * @param file the file
+   * @param content writes the content of the file
+   */
+  public void load(HFileSnapshot file, Content content) {
+    long fileId = file.getFileId();
+    synchronized (this) {
+      if (file.getLength() > maxBytes || entries.containsKey(fileId) || !loading.add(fileId)) {
+        return;
+      }
+    }
+    try {
+      loader.execute(() -> {
+        Path temp = null;
+        try {
+          temp = Files.createTempFile(path, fileId + ".", TEMP_SUFFIX);
+          try (OutputStream out = Files.newOutputStream(temp)) {
+            content.writeTo(out);
+          }
+          Path copy = path.resolve(Long.toString(fileId));
+          Files.move(temp, copy, StandardCopyOption.ATOMIC_MOVE);
+          synchronized (this) {
+            if (invalidated.contains(fileId)) {
+              // deleted while it was copied
+              Files.deleteIfExists(copy);
+              return;
+            }
+            entries.put(fileId, file.getLength());
+            // written by this cache from the cluster content, so known to be valid
+            validated.add(fileId);
+            bytes += file.getLength();
+            evict();
+          }
+        } catch (IOException ex) {
+          log.warn("Failed to copy file " + fileId + " to " + path + ": " + ex.getMessage());
+          try {
+            if (temp != null) {
+              Files.deleteIfExists(temp);
+            }
+          } catch (IOException ignored) {
+            // left for the next start to clean up
+          }
+        } finally {
+          synchronized (this) {
+            loading.remove(fileId);
+            invalidated.remove(fileId);
+          }
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      // closed
+      synchronized (this) {
+        loading.remove(fileId);
+      }
+    }
+  }
+
+  /**
+   * Deletes the local copy of a file, or the copy being made once it is written.
+   *
+   * @param fileId the id of the file
+   */
+  public synchronized void invalidate(long fileId) {
+    if (entries.containsKey(fileId)) {
+      remove(fileId);
+    } else if (loading.contains(fileId)) {
+      invalidated.add(fileId);
+    }
+  }
+
+  private void evict() {
+    while (bytes > maxBytes && !entries.isEmpty()) {
+      remove(entries.keySet().iterator().next());
+    }
+  }
+
+  private void remove(long fileId) {
+    Long length = entries.remove(fileId);
+    if (length != null) {
+      bytes -= length;
+    }
+    validated.remove(fileId);
+    try {
+      // open mappings stay readable until they are closed
+      Files.deleteIfExists(path.resolve(Long.toString(fileId)));
+    } catch (IOException ex) {
+      log.warn("Failed to delete local copy of file " + fileId + ": " + ex.getMessage());
+    }
+  }
+
+  /**
+   * Returns true if a file has a local copy, which may not have been validated yet.
+   *
+   * @param fileId the id of the file
+   * @return true if the file has a copy
+   */
+  public synchronized boolean contains(long fileId) {
+    return entries.containsKey(fileId);
+  }
+
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  // visible to tests waiting for background copies
+  synchronized boolean isLoading() {
+    return !loading.isEmpty();
+  }
+
+  @Override
+  public void close() throws IOException {
+    loader.shutdownNow();
+    try {
+      lock.close();
+    } finally {
+      mmap.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "HDiskCache(path=" + path + ",maxBytes=" + maxBytes + ",bytes=" + getBytes() + ")";
+  }
+
+  /**
+   * Writes the content of a file being copied.
+   */
+  public interface Content {
+
+    void writeTo(OutputStream out) throws IOException;
+  }
+}
@@ -6,22 +6,66 @@ import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
 import com.netradius.lucene.hazelcast.serializer.HazelcastDataSerializableFactory;
 import org.apache.lucene.util.Accountable;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.zip.CRC32;
 
 /**
- * Holds details for a file in HazelcastDirectory.
+ * Holds details for a file in HazelcastDirectory. Only the metadata of a file is serialized, the
+ * content lives in separate block entries keyed by {@link HBlockKey}. Files small enough to be
+ * inlined carry their content as a single payload after the metadata, saving a block fetch when
+ * they are opened. The blocks of other files may be compressed, as recorded by
+ * {@link #getCompression()}. A checksum of each block as stored is kept, so blocks can be
+ * verified where they live, see {@link HVerifyTask}. The blocks of deduplicated files are keyed
+ * by their content instead, see {@link HContentKey}, and the content hash of each block is kept
+ * as well.
+ *
+ * <p>The block checksums and hashes grow with the file, so they are not part of the metadata but
+ * kept in a block table entry of the blocks map, see {@link #blockTableKey()}, and only loaded
+ * by the operations needing them. Listing files and reading their length cost the same for any
+ * file size.
+ *
+ * <p>The serialized form starts with a format version byte, entries written before the format
+ * was versioned are read by {@link LegacyHFile}.
  *
  * @author Dilip S Sisodia
  * @author Erik R. Jensen
  */
 public class HFile implements Accountable, IdentifiedDataSerializable {
 
+  public static final byte FORMAT_VERSION = 6;
+
+  /**
+   * Block index of the key of the block table of a file.
+   */
+  public static final int BLOCK_TABLE_INDEX = -1;
+
+  private static final byte FLAG_INLINE = 1;
+  private static final byte FLAG_DEDUPLICATED = 2;
+
   protected ArrayList<byte[]> buffers = new ArrayList<>();
+  protected boolean inline;
+  protected long fileId;
+  protected int blockSize = HOutputStream.BUFFER_SIZE;
   protected long sizeInBytes;
   protected long length;
+  protected long checksum;
+  protected HCompression compression = HCompression.NONE;
+  protected int[] blockChecksums = new int[0];
+  protected int numBlockChecksums;
+  protected boolean deduplicated;
+  // two longs per block, see HContentKey
+  protected long[] blockHashes = new long[0];
+  protected int numBlockHashes;
+  // false for published files whose block table is not read yet
+  protected transient boolean blockTableLoaded = true;
   protected HazelcastDirectory directory;
 
   public HFile() {}
@@ -30,6 +74,257 @@ public class HFile implements Accountable, IdentifiedDataSerializable {
     this.directory = directory;
   }
 
+  public HFile(HazelcastDirectory directory, long fileId, int blockSize) {
+    this(directory, fileId, blockSize, HCompression.NONE);
+  }
+
+  public HFile(HazelcastDirectory directory, long fileId, int blockSize,
+      HCompression compression) {
+    this.directory = directory;
+    this.fileId = fileId;
+    this.blockSize = blockSize;
+    this.compression = compression;
+  }
+
+  /**
+   * Returns the id of the file, unique for every file written and used as the generation of the
+   * file content.
+   */
+  public long getFileId() {
+    return fileId;
+  }
+
+  /**
+   * Returns the CRC32 checksum of the file content, as returned by
+   * {@link org.apache.lucene.store.IndexOutput#getChecksum()} when the file was written.
+   */
+  public synchronized long getChecksum() {
+    return checksum;
+  }
+
+  synchronized void setChecksum(long checksum) {
+    this.checksum = checksum;
+  }
+
+  /**
+   * Returns true if the checksums of all content blocks are known, which is not the case for
+   * inline files and files written before block checksums were kept.
+   */
+  public synchronized boolean hasBlockChecksums() {
+    return !isInline() && numBlockChecksums == numBlocks();
+  }
+
+  /**
+   * Returns the CRC32 checksum of a content block as stored, after compression.
+   *
+   * @param index the index of the block
+   * @return the lower 32 bits of the checksum
+   */
+  public synchronized int getBlockChecksum(int index) {
+    return blockChecksums[index];
+  }
+
+  /**
+   * Records the checksum of a content block as it is written.
+   *
+   * @param index the index of the block
+   * @param block the block as stored
+   */
+  synchronized void setBlockChecksum(int index, byte[] block) {
+    if (index >= blockChecksums.length) {
+      blockChecksums = Arrays.copyOf(blockChecksums, Math.max(index + 1,
+          blockChecksums.length * 2));
+    }
+    blockChecksums[index] = checksum(block);
+    numBlockChecksums = Math.max(numBlockChecksums, index + 1);
+  }
+
+  /**
+   * Takes the block checksums and content hashes of a file whose blocks were copied to this file
+   * or are referenced by it. The block table of the source must be loaded.
+   *
+   * @param source the file the blocks were copied from
+   */
+  synchronized void copyBlockChecksums(HFile source) {
+    synchronized (source) {
+      blockChecksums = Arrays.copyOf(source.blockChecksums, source.numBlockChecksums);
+      numBlockChecksums = source.numBlockChecksums;
+      deduplicated = source.deduplicated;
+      blockHashes = Arrays.copyOf(source.blockHashes, 2 * source.numBlockHashes);
+      numBlockHashes = source.numBlockHashes;
+    }
+  }
+
+  /**
+   * Returns the checksum of a block as kept by {@link #getBlockChecksum(int)}.
+   *
+   * @param block the block
+   * @return the lower 32 bits of the CRC32 checksum
+   */
+  public static int checksum(byte[] block) {
+    return checksum(block, block.length);
+  }
+
+  /**
+   * Returns the checksum of the start of an array holding a block.
+   *
+   * @param block the array
+   * @param length the length of the block
+   * @return the lower 32 bits of the CRC32 checksum
+   */
+  public static int checksum(byte[] block, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(block, 0, length);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Returns the key of the entry of the blocks map holding the block checksums and content
+   * hashes of this file.
+   */
+  public HBlockKey blockTableKey() {
+    return new HBlockKey(fileId, BLOCK_TABLE_INDEX);
+  }
+
+  /**
+   * Returns true if the block checksums and content hashes are known, which is always the case
+   * for files written by this process and never for published files until
+   * {@link #setBlockTable(byte[])} is called.
+   */
+  public synchronized boolean isBlockTableLoaded() {
+    return blockTableLoaded;
+  }
+
+  private void checkBlockTable() {
+    if (isDeduplicated() && !blockTableLoaded) {
+      throw new IllegalStateException("Block table of file " + fileId + " is not loaded");
+    }
+  }
+
+  /**
+   * Returns the block table stored under {@link #blockTableKey()}.
+   */
+  synchronized byte[] encodeBlockTable() {
+    ByteBuffer table = ByteBuffer.allocate(8 + 4 * numBlockChecksums + 16 * numBlockHashes);
+    table.putInt(numBlockChecksums);
+    for (int i = 0; i < numBlockChecksums; i++) {
+      table.putInt(blockChecksums[i]);
+    }
+    table.putInt(numBlockHashes);
+    for (int i = 0; i < 2 * numBlockHashes; i++) {
+      table.putLong(blockHashes[i]);
+    }
+    return table.array();
+  }
+
+  /**
+   * Takes the block checksums and content hashes of a published file from its block table.
+   *
+   * @param table the block table, or null if the file has none
+   * @throws IOException if the table is corrupt or a deduplicated file has no table
+   */
+  synchronized void setBlockTable(byte[] table) throws IOException {
+    if (table == null) {
+      if (isDeduplicated() && numBlocks() > 0) {
+        throw new IOException("Missing block table of file " + fileId);
+      }
+      blockTableLoaded = true;
+      return;
+    }
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(table);
+      numBlockChecksums = buffer.getInt();
+      blockChecksums = new int[numBlockChecksums];
+      for (int i = 0; i < numBlockChecksums; i++) {
+        blockChecksums[i] = buffer.getInt();
+      }
+      numBlockHashes = buffer.getInt();
+      blockHashes = new long[2 * numBlockHashes];
+      for (int i = 0; i < blockHashes.length; i++) {
+        blockHashes[i] = buffer.getLong();
+      }
+    } catch (BufferUnderflowException | NegativeArraySizeException ex) {
+      throw new IOException("Corrupt block table of file " + fileId, ex);
+    }
+    if (isDeduplicated() && numBlockHashes < numBlocks()) {
+      throw new IOException("Incomplete block table of file " + fileId);
+    }
+    blockTableLoaded = true;
+  }
+
+  /**
+   * Returns true if the content blocks of this file are keyed by their content, so identical
+   * blocks are stored once for the whole index.
+   */
+  public synchronized boolean isDeduplicated() {
+    return deduplicated && !inline;
+  }
+
+  synchronized void setDeduplicated(boolean deduplicated) {
+    this.deduplicated = deduplicated;
+  }
+
+  /**
+   * Returns the key of a content block.
+   *
+   * @param index the index of the block
+   * @return the content key if the file is deduplicated, or else the key by file id and index
+   */
+  public synchronized HBlockKey blockKey(int index) {
+    checkBlockTable();
+    return isDeduplicated()
+        ? new HContentKey(blockHashes[2 * index], blockHashes[2 * index + 1])
+        : new HBlockKey(fileId, index);
+  }
+
+  /**
+   * Records the content hash of a block of a deduplicated file as it is written.
+   *
+   * @param index the index of the block
+   * @param block the block as stored
+   * @return the key of the block
+   */
+  synchronized HContentKey setBlockHash(int index, byte[] block) {
+    HContentKey key = HContentKey.of(block);
+    if (2 * index + 1 >= blockHashes.length) {
+      blockHashes = Arrays.copyOf(blockHashes, Math.max(2 * index + 2, blockHashes.length * 2));
+    }
+    blockHashes[2 * index] = key.getHigh();
+    blockHashes[2 * index + 1] = key.getLow();
+    numBlockHashes = Math.max(numBlockHashes, index + 1);
+    return key;
+  }
+
+  /**
+   * Returns the number of blocks whose content hash is known, which are the blocks referenced by
+   * a deduplicated file.
+   */
+  synchronized int numBlockHashes() {
+    return numBlockHashes;
+  }
+
+  /**
+   * Forgets the content hashes, once the blocks they reference are released.
+   */
+  synchronized void clearBlockHashes() {
+    numBlockHashes = 0;
+  }
+
+  /**
+   * Returns the size of the content blocks of this file, chosen when the file was created.
+   */
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Returns the compression of the content blocks of this file, inline content is never
+   * compressed.
+   */
+  public HCompression getCompression() {
+    return compression;
+  }
+
   public synchronized long getLength() {
     return this.length;
   }
@@ -42,6 +337,28 @@ public class HFile implements Accountable, IdentifiedDataSerializable {
     return sizeInBytes;
   }
 
+  /**
+   * Returns true if the content of this file is held by this object instead of separate block
+   * entries.
+   */
+  public synchronized boolean isInline() {
+    return inline;
+  }
+
+  synchronized void setInline(boolean inline) {
+    this.inline = inline;
+    if (!inline) {
+      buffers.clear();
+    }
+  }
+
+  /**
+   * Returns the number of content blocks of the file.
+   */
+  public synchronized int numBlocks() {
+    return (int) ((length + blockSize - 1) / blockSize);
+  }
+
   protected final byte[] addBuffer(int size) {
     byte[] buffer = newBuffer(size);
     synchronized (this) {
@@ -49,11 +366,49 @@ public class HFile implements Accountable, IdentifiedDataSerializable {
       sizeInBytes += size;
     }
     if (this.directory != null) {
-      this.directory.sizeInBytes.getAndAdd(size);
+      this.directory.quota.add(size);
     }
     return buffer;
   }
 
+  /**
+   * Replaces the content of this file with a single inline payload.
+   */
+  final synchronized void setInlineContent(byte[] content) {
+    buffers.clear();
+    buffers.add(content);
+    inline = true;
+  }
+
+  /**
+   * Sets the number of bytes stored for this file, adjusting the size of the index.
+   */
+  final void updateSizeInBytes(long size) {
+    long delta;
+    synchronized (this) {
+      delta = size - sizeInBytes;
+      sizeInBytes = size;
+    }
+    if (this.directory != null) {
+      this.directory.quota.add(delta);
+    }
+  }
+
+  /**
+   * Returns an immutable view of the file as it is now, for readers to share without locking.
+   *
+   * @param name the name of the file
+   * @return the snapshot
+   */
+  public synchronized HFileSnapshot snapshot(String name) {
+    checkBlockTable();
+    boolean inline = isInline();
+    return new HFileSnapshot(HazelcastDirectoryConfig.fileType(name), fileId, blockSize, length,
+        numBlocks(), checksum, compression,
+        inline ? buffers.toArray(new byte[buffers.size()][]) : null,
+        isDeduplicated() ? Arrays.copyOf(blockHashes, 2 * numBlockHashes) : null);
+  }
+
   protected final synchronized byte[] getBuffer(int index) {
     return buffers.get(index);
   }
@@ -83,15 +438,80 @@ public class HFile implements Accountable, IdentifiedDataSerializable {
   }
 
   public void writeData(ObjectDataOutput objectDataOutput) throws IOException {
+    writeTo(objectDataOutput);
+  }
+
+  public void readData(ObjectDataInput objectDataInput) throws IOException {
+    readFrom(objectDataInput);
+  }
+
+  /**
+   * Writes the serialized form of this file, also used by {@link HFileStore} outside of
+   * Hazelcast serialization.
+   *
+   * @param objectDataOutput the output
+   * @throws IOException if the output could not be written
+   */
+  synchronized void writeTo(DataOutput objectDataOutput) throws IOException {
+    objectDataOutput.writeByte(FORMAT_VERSION);
+    objectDataOutput.writeByte((inline ? FLAG_INLINE : 0)
+        | (deduplicated ? FLAG_DEDUPLICATED : 0));
+    objectDataOutput.writeLong(fileId);
+    objectDataOutput.writeInt(blockSize);
     objectDataOutput.writeLong(length);
     objectDataOutput.writeLong(sizeInBytes);
-    objectDataOutput.writeObject(buffers);
+    objectDataOutput.writeLong(checksum);
+    objectDataOutput.writeByte(compression.getId());
+    if (inline && length > 0) {
+      objectDataOutput.write(buffers.get(0), 0, (int) length);
+    }
   }
 
-  public void readData(ObjectDataInput objectDataInput) throws IOException {
+  /**
+   * Reads the serialized form written by {@link #writeTo(DataOutput)}.
+   *
+   * @param objectDataInput the input
+   * @throws IOException if the input could not be read
+   */
+  synchronized void readFrom(DataInput objectDataInput) throws IOException {
+    byte version = objectDataInput.readByte();
+    if (version < 1 || version > FORMAT_VERSION) {
+      throw new IOException("Unsupported HFile format version " + version);
+    }
+    byte flags = objectDataInput.readByte();
+    inline = (flags & FLAG_INLINE) != 0;
+    deduplicated = (flags & FLAG_DEDUPLICATED) != 0;
+    fileId = objectDataInput.readLong();
+    blockSize = objectDataInput.readInt();
     length = objectDataInput.readLong();
     sizeInBytes = objectDataInput.readLong();
-    buffers = objectDataInput.readObject();
+    if (version >= 2) {
+      checksum = objectDataInput.readLong();
+    }
+    if (version >= 3) {
+      compression = HCompression.forId(objectDataInput.readByte());
+    }
+    if (inline && length > 0) {
+      byte[] payload = new byte[(int) length];
+      objectDataInput.readFully(payload);
+      buffers.add(payload);
+    } else if (!inline && version >= 6) {
+      blockTableLoaded = false;
+    } else if (!inline && version >= 4) {
+      // kept with the metadata before version 6
+      numBlockChecksums = objectDataInput.readInt();
+      blockChecksums = new int[numBlockChecksums];
+      for (int i = 0; i < numBlockChecksums; i++) {
+        blockChecksums[i] = objectDataInput.readInt();
+      }
+      if (deduplicated) {
+        numBlockHashes = objectDataInput.readInt();
+        blockHashes = new long[2 * numBlockHashes];
+        for (int i = 0; i < blockHashes.length; i++) {
+          blockHashes[i] = objectDataInput.readLong();
+        }
+      }
+    }
   }
 
 }
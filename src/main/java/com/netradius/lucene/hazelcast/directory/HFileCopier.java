@@ -0,0 +1,96 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.core.IExecutorService;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Copies files between directories on the same cluster without passing their content through
+ * the client. The content blocks are copied by a task running on the cluster members, each member
+ * copying the blocks it owns, see {@link HCopyBlocksTask}. This requires the library on the member
+ * classpath with {@link com.netradius.lucene.hazelcast.serializer.HazelcastDataSerializableFactory}
+ * registered. A deduplicated file copied within an index only references its blocks again.
+ *
+ * @author Erik R. Jensen
+ */
+public class HFileCopier {
+
+  private final HazelcastDirectory directory;
+
+  HFileCopier(HazelcastDirectory directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Copies a file into the directory.
+   *
+   * @param source the directory to copy from
+   * @param src the name of the file to copy
+   * @param dest the name of the copy
+   * @return false if the file must be read and written through the client instead, which is the
+   *     case for legacy files and deduplicated files of another index
+   * @throws IOException if the file could not be copied
+   */
+  boolean copy(HazelcastDirectory source, String src, String dest) throws IOException {
+    source.publishPending(Collections.singleton(src));
+    HFile sourceFile = source.getFile(src);
+    if (sourceFile instanceof LegacyHFile || sourceFile.isDeduplicated()
+        && !source.blocks.getName().equals(directory.blocks.getName())) {
+      return false;
+    }
+    HFile file = new HFile(directory, directory.fileIds.newId(), sourceFile.getBlockSize(),
+        sourceFile.getCompression());
+    file.setLength(sourceFile.getLength());
+    file.setChecksum(sourceFile.getChecksum());
+    if (sourceFile.isInline()) {
+      file.setInlineContent(sourceFile.numBuffers() > 0 ? sourceFile.getBuffer(0) : new byte[0]);
+      file.updateSizeInBytes(sourceFile.getSizeInBytes());
+      directory.replaceFile(dest, file);
+      return true;
+    }
+    source.loadBlockTable(sourceFile);
+    if (sourceFile.isDeduplicated()) {
+      file.copyBlockChecksums(sourceFile);
+      directory.dedup.reference(file, src);
+    } else {
+      copyBlocks(source, sourceFile, file, src, dest);
+      file.copyBlockChecksums(sourceFile);
+    }
+    directory.blocks.set(file.blockTableKey(), file.encodeBlockTable());
+    file.updateSizeInBytes(sourceFile.getSizeInBytes());
+    directory.replaceFile(dest, file);
+    return true;
+  }
+
+  private void copyBlocks(HazelcastDirectory source, HFile sourceFile, HFile file, String src,
+      String dest) throws IOException {
+    String sourceBlocks = source.blocks.getName();
+    String blocks = directory.blocks.getName();
+    int numBlocks = sourceFile.numBlocks();
+    IExecutorService executor = directory.hazelcastInstance.getExecutorService(
+        directory.store.getName());
+    int copied = 0;
+    try {
+      for (Future<Integer> future : executor.submitToAllMembers(new HCopyBlocksTask(
+          sourceBlocks, sourceFile.getFileId(), blocks, file.getFileId(), numBlocks, true))
+          .values()) {
+        copied += future.get();
+      }
+      if (copied != numBlocks) {
+        // partitions migrated while copying, copy everything from a single member instead
+        executor.submit(new HCopyBlocksTask(sourceBlocks, sourceFile.getFileId(), blocks,
+            file.getFileId(), numBlocks, false)).get();
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while copying " + src + " to " + dest);
+    } catch (ExecutionException ex) {
+      directory.deleteBlocks(file);
+      throw new IOException("Failed to copy " + src + " to " + dest, ex.getCause());
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package com.netradius.lucene.hazelcast.directory;
+
+/**
+ * Immutable view of a file taken when it is opened for reading. Lucene files are never modified
+ * once written, so readers and their clones share a snapshot and read it without locking, while
+ * the mutable {@link HFile} stays with the writer and the metadata map.
+ *
+ * @author Erik R. Jensen
+ */
+public final class HFileSnapshot {
+
+  private final String fileType;
+  private final long fileId;
+  private final int blockSize;
+  private final long length;
+  private final int numBlocks;
+  private final long checksum;
+  private final HCompression compression;
+  private final byte[][] inlineBlocks;
+  private final long[] blockHashes;
+
+  HFileSnapshot(String fileType, long fileId, int blockSize, long length, int numBlocks,
+      long checksum, HCompression compression, byte[][] inlineBlocks, long[] blockHashes) {
+    this.fileType = fileType;
+    this.fileId = fileId;
+    this.blockSize = blockSize;
+    this.length = length;
+    this.numBlocks = numBlocks;
+    this.checksum = checksum;
+    this.compression = compression;
+    this.inlineBlocks = inlineBlocks;
+    this.blockHashes = blockHashes;
+  }
+
+  /**
+   * Returns the type of the file as returned by {@link HazelcastDirectoryConfig#fileType}.
+   */
+  public String getFileType() {
+    return fileType;
+  }
+
+  public long getFileId() {
+    return fileId;
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  public int numBlocks() {
+    return numBlocks;
+  }
+
+  public long getChecksum() {
+    return checksum;
+  }
+
+  public HCompression getCompression() {
+    return compression;
+  }
+
+  /**
+   * Returns the length of a block before it was compressed.
+   *
+   * @param index the index of the block
+   * @return the length in bytes
+   */
+  public int blockLength(int index) {
+    return (int) Math.min(blockSize, length - (long) blockSize * index);
+  }
+
+  /**
+   * Returns true if the content of the file is held by the snapshot instead of separate block
+   * entries.
+   */
+  public boolean isInline() {
+    return inlineBlocks != null;
+  }
+
+  /**
+   * Returns true if the blocks of the file are keyed by their content, see {@link HContentKey}.
+   */
+  public boolean isDeduplicated() {
+    return blockHashes != null;
+  }
+
+  /**
+   * Returns the key of a content block, as returned by {@link HFile#blockKey(int)}.
+   *
+   * @param index the index of the block
+   * @return the key
+   */
+  public HBlockKey blockKey(int index) {
+    return blockHashes != null
+        ? new HContentKey(blockHashes[2 * index], blockHashes[2 * index + 1])
+        : new HBlockKey(fileId, index);
+  }
+
+  /**
+   * Returns a block of an inline file.
+   *
+   * @param index the index of the block
+   * @return the block
+   */
+  byte[] getInlineBlock(int index) {
+    return inlineBlocks[index];
+  }
+}
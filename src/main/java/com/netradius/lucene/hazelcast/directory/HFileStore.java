@@ -0,0 +1,220 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.netradius.lucene.hazelcast.serializer.HazelcastDataSerializableFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link HMapStore} of the metadata map of an index. After a restart only the files of the latest
+ * commit whose files are all stored with all their blocks are loaded, which skips files written
+ * after the commit and, with write behind, commits whose blocks were not written before the
+ * cluster went down. Files which are not index files are always loaded.
+ *
+ * @author Erik R. Jensen
+ */
+@Slf4j
+public class HFileStore extends HMapStore<String, HFile> {
+
+  @Override
+  protected byte[] encodeKey(String key) {
+    return key.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  protected String decodeKey(byte[] key) {
+    return new String(key, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  protected byte[] encodeValue(HFile value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(value.getId());
+    value.writeTo(out);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  @Override
+  protected HFile decodeValue(byte[] value) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+    HFile file = in.readByte() == HazelcastDataSerializableFactory.LEGACY_HFILE_TYPE
+        ? new LegacyHFile() : new HFile();
+    file.readFrom(in);
+    return file;
+  }
+
+  @Override
+  protected Collection<String> select(Collection<String> keys) throws IOException {
+    HBlockStore blocks = new HBlockStore();
+    blocks.open(hazelcastInstance, root, mapName + HBlockStore.MAP_SUFFIX, true);
+    try {
+      Map<String, HFile> live = liveFiles(blocks, null);
+      return live != null ? live.keySet() : keys;
+    } finally {
+      blocks.destroy();
+    }
+  }
+
+  /**
+   * Returns the files to load after a restart.
+   *
+   * @param blocks the store of the blocks map of the index
+   * @param storedBlocks the keys stored by the blocks store, null to list them
+   * @return the files by name or null to load all files
+   * @throws IOException if the files could not be read
+   */
+  Map<String, HFile> liveFiles(HBlockStore blocks, Set<HBlockKey> storedBlocks)
+      throws IOException {
+    Map<String, HFile> files = new HashMap<>();
+    List<String> commits = new ArrayList<>();
+    for (String name : keys()) {
+      HFile file = read(name);
+      if (file != null) {
+        files.put(name, file);
+        if (name.equals(IndexFileNames.SEGMENTS)
+            || name.startsWith(IndexFileNames.SEGMENTS + "_")) {
+          commits.add(name);
+        }
+      }
+    }
+    if (commits.isEmpty()) {
+      return null;
+    }
+    for (Map.Entry<String, HFile> entry : files.entrySet()) {
+      HFile file = entry.getValue();
+      if (file.isDeduplicated() && !file.isBlockTableLoaded()) {
+        try {
+          file.setBlockTable(blocks.read(file.blockTableKey()));
+        } catch (IOException ex) {
+          // the file counts as missing
+          log.warn("Failed to read the block table of " + entry.getKey() + " of " + mapName
+              + ": " + ex.getMessage());
+        }
+      }
+    }
+    if (storedBlocks == null) {
+      storedBlocks = new HashSet<>(blocks.keys());
+    }
+    commits.sort(Comparator.comparingLong(SegmentInfos::generationFromSegmentsFileName)
+        .reversed());
+    try (Directory commitFiles = new RAMDirectory()) {
+      // segment infos are all a commit is read from
+      for (Map.Entry<String, HFile> entry : files.entrySet()) {
+        if ("si".equals(IndexFileNames.getExtension(entry.getKey()))) {
+          try {
+            copy(entry.getKey(), entry.getValue(), blocks, commitFiles);
+          } catch (IOException ex) {
+            // fails reading the commits using the segment
+            log.warn("Failed to read " + entry.getKey() + " of " + mapName + ": "
+                + ex.getMessage());
+          }
+        }
+      }
+      for (String commit : commits) {
+        try {
+          copy(commit, files.get(commit), blocks, commitFiles);
+          Collection<String> referenced = SegmentInfos.readCommit(commitFiles, commit)
+              .files(true);
+          if (isComplete(referenced, files, storedBlocks)) {
+            Map<String, HFile> live = new HashMap<>();
+            for (Map.Entry<String, HFile> entry : files.entrySet()) {
+              if (referenced.contains(entry.getKey()) || !isIndexFile(entry.getKey())) {
+                live.put(entry.getKey(), entry.getValue());
+              }
+            }
+            return live;
+          }
+          log.warn("Files of commit " + commit + " of " + mapName + " are missing, trying the "
+              + "previous commit");
+        } catch (IOException | RuntimeException ex) {
+          log.warn("Failed to read commit " + commit + " of " + mapName + ": " + ex.getMessage());
+        }
+      }
+    }
+    log.warn("No complete commit found in " + mapName + ", loading all files");
+    return null;
+  }
+
+  private static boolean isComplete(Collection<String> referenced, Map<String, HFile> files,
+      Set<HBlockKey> storedBlocks) {
+    for (String name : referenced) {
+      HFile file = files.get(name);
+      if (file == null) {
+        return false;
+      }
+      if (!file.isInline()) {
+        if (file.isDeduplicated() && !file.isBlockTableLoaded()) {
+          return false;
+        }
+        for (int i = 0; i < file.numBlocks(); i++) {
+          if (!storedBlocks.contains(file.blockKey(i))) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns true for the files Lucene deletes when no commit references them.
+   */
+  private static boolean isIndexFile(String name) {
+    return IndexFileNames.CODEC_FILE_PATTERN.matcher(name).matches()
+        || name.startsWith(IndexFileNames.SEGMENTS)
+        || name.startsWith(IndexFileNames.PENDING_SEGMENTS);
+  }
+
+  private static void copy(String name, HFile file, HBlockStore blocks, Directory to)
+      throws IOException {
+    byte[] content = new byte[(int) file.getLength()];
+    if (file.isInline()) {
+      int offset = 0;
+      for (int i = 0; i < file.numBuffers() && offset < content.length; i++) {
+        byte[] buffer = file.getBuffer(i);
+        int length = Math.min(buffer.length, content.length - offset);
+        System.arraycopy(buffer, 0, content, offset, length);
+        offset += length;
+      }
+    } else if (file.isDeduplicated() && !file.isBlockTableLoaded()) {
+      throw new FileNotFoundException("Block table of " + name);
+    } else {
+      for (int i = 0; i < file.numBlocks(); i++) {
+        // the reference count following the block of a deduplicated file is not read
+        byte[] stored = blocks.read(file.blockKey(i));
+        if (stored == null) {
+          throw new FileNotFoundException("Block " + i + " of " + name);
+        }
+        int offset = i * file.getBlockSize();
+        int length = Math.min(file.getBlockSize(), content.length - offset);
+        System.arraycopy(file.getCompression().decompress(stored, length), 0, content, offset,
+            length);
+      }
+    }
+    try (IndexOutput out = to.createOutput(name, IOContext.DEFAULT)) {
+      out.writeBytes(content, content.length);
+    }
+  }
+}
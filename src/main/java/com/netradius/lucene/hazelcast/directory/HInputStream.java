@@ -1,40 +1,98 @@
 package com.netradius.lucene.hazelcast.directory;
 
+import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.RandomAccessInput;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * Random access input stream for input from a file in directory, used for lucene index input
- * operations.
+ * operations. Content blocks are fetched from the cluster as they are needed. Inputs opened for
+ * merges or read once, and inputs that read several blocks in sequence, fetch the next blocks
+ * asynchronously ahead of the reader. An input and its clones and slices read a shared
+ * {@link HFileSnapshot} of the file, so switching blocks takes no locks.
+ *
+ * <p>Multi-byte values are decoded straight from the current block when they fit in it. The
+ * positional reads of {@link RandomAccessInput} keep their own block and leave the file pointer
+ * alone. Blocks are read through {@link ByteBuffer}s, which live outside the heap when the
+ * block cache is off-heap.
  *
  * @author Dilip S Sisodia
  */
-public class HInputStream extends IndexInput implements Cloneable {
+public class HInputStream extends IndexInput implements Cloneable, RandomAccessInput {
 
-  static final int BUFFER_SIZE = HOutputStream.BUFFER_SIZE;
+  /**
+   * Number of consecutive block switches after which a reader is considered sequential.
+   */
+  static final int SEQUENTIAL_THRESHOLD = 3;
 
-  private final HFile file;
+  private final HazelcastDirectory directory;
+  private final HFileSnapshot file;
   private final long length;
+  private final int blockSize;
 
 
-  private byte[] currentBuffer;
+  private ByteBuffer currentBuffer;
   private int currentBufferIndex;
 
   private int bufferPosition;
   private long bufferStart;
   private int bufferLength;
 
-  public HInputStream(HFile file, String name) throws IOException {
-    this(file, name, file.length);
+  private final boolean sequential;
+  private int lastLoadedIndex = -1;
+  private int sequentialLoads;
+  private Map<Integer, Future<byte[]>> prefetches;
+
+  private ByteBuffer positionalBuffer;
+  private int positionalBufferIndex = -1;
+
+  public HInputStream(HazelcastDirectory directory, HFile file, String name) throws IOException {
+    this(directory, file.snapshot(name), name, IOContext.DEFAULT);
+  }
+
+  public HInputStream(HazelcastDirectory directory, HFile file, String name, IOContext context)
+      throws IOException {
+    this(directory, file.snapshot(name), name, context);
+  }
+
+  public HInputStream(HazelcastDirectory directory, HFileSnapshot file, String name,
+      IOContext context) throws IOException {
+    this(directory, file, name, file.getLength(),
+        context.readOnce || context.context == IOContext.Context.MERGE);
+  }
+
+  public HInputStream(HazelcastDirectory directory, HFile file, String name, long length)
+      throws IOException {
+    this(directory, file.snapshot(name), name, length, false);
   }
 
-  public HInputStream(HFile file, String name, long length) throws IOException {
+  /**
+   * Creates a new input.
+   *
+   * @param directory the directory of the file
+   * @param file the snapshot of the file to read
+   * @param name the name of the input
+   * @param length the length of the input
+   * @param sequential true to read ahead from the first block on
+   * @throws IOException if the file is too large
+   */
+  public HInputStream(HazelcastDirectory directory, HFileSnapshot file, String name, long length,
+      boolean sequential) throws IOException {
     super("HInputStream(name=" + name + ")");
+    this.sequential = sequential;
+    this.directory = directory;
     this.file = file;
     this.length = length;
-    if (length / BUFFER_SIZE >= Integer.MAX_VALUE) {
+    this.blockSize = file.getBlockSize();
+    if (length / blockSize >= Integer.MAX_VALUE) {
       throw new IOException("RAMInputStream too large length=" + length + ": " + name);
     }
     currentBufferIndex = -1;
@@ -56,7 +114,7 @@ public class HInputStream extends IndexInput implements Cloneable {
       this.switchCurrentBuffer(true);
     }
 
-    return this.currentBuffer[this.bufferPosition++];
+    return this.currentBuffer.get(this.bufferPosition++);
   }
 
   public void readBytes(byte[] b, int offset, int len) throws IOException {
@@ -68,7 +126,8 @@ public class HInputStream extends IndexInput implements Cloneable {
 
       int remainInBuffer = this.bufferLength - this.bufferPosition;
       int bytesToCopy = len < remainInBuffer ? len : remainInBuffer;
-      System.arraycopy(this.currentBuffer, this.bufferPosition, b, offset, bytesToCopy);
+      this.currentBuffer.position(this.bufferPosition);
+      this.currentBuffer.get(b, offset, bytesToCopy);
       offset += bytesToCopy;
       len -= bytesToCopy;
       this.bufferPosition += bytesToCopy;
@@ -76,43 +135,253 @@ public class HInputStream extends IndexInput implements Cloneable {
 
   }
 
+  @Override
+  public short readShort() throws IOException {
+    if (this.bufferLength - this.bufferPosition >= 2) {
+      short value = this.currentBuffer.getShort(this.bufferPosition);
+      this.bufferPosition += 2;
+      return value;
+    }
+    return super.readShort();
+  }
+
+  @Override
+  public int readInt() throws IOException {
+    if (this.bufferLength - this.bufferPosition >= 4) {
+      int value = this.currentBuffer.getInt(this.bufferPosition);
+      this.bufferPosition += 4;
+      return value;
+    }
+    return super.readInt();
+  }
+
+  @Override
+  public long readLong() throws IOException {
+    if (this.bufferLength - this.bufferPosition >= 8) {
+      long value = this.currentBuffer.getLong(this.bufferPosition);
+      this.bufferPosition += 8;
+      return value;
+    }
+    return super.readLong();
+  }
+
+  @Override
+  public int readVInt() throws IOException {
+    if (this.bufferLength - this.bufferPosition < 5) {
+      return super.readVInt();
+    }
+    ByteBuffer b = this.currentBuffer;
+    int p = this.bufferPosition;
+    byte current = b.get(p++);
+    int value = current & 0x7F;
+    if (current < 0) {
+      current = b.get(p++);
+      value |= (current & 0x7F) << 7;
+      if (current < 0) {
+        current = b.get(p++);
+        value |= (current & 0x7F) << 14;
+        if (current < 0) {
+          current = b.get(p++);
+          value |= (current & 0x7F) << 21;
+          if (current < 0) {
+            // the fifth byte may only carry the remaining four bits
+            current = b.get(p++);
+            if ((current & 0xF0) != 0) {
+              throw new IOException("Invalid vInt detected (too many bits)");
+            }
+            value |= current << 28;
+          }
+        }
+      }
+    }
+    this.bufferPosition = p;
+    return value;
+  }
+
+  @Override
+  public long readVLong() throws IOException {
+    if (this.bufferLength - this.bufferPosition < 9) {
+      return super.readVLong();
+    }
+    ByteBuffer b = this.currentBuffer;
+    int p = this.bufferPosition;
+    byte current = b.get(p++);
+    long value = current & 0x7FL;
+    for (int shift = 7; current < 0 && shift <= 56; shift += 7) {
+      current = b.get(p++);
+      value |= (current & 0x7FL) << shift;
+    }
+    if (current < 0) {
+      throw new IOException("Invalid vLong detected (negative values disallowed)");
+    }
+    this.bufferPosition = p;
+    return value;
+  }
+
+  @Override
+  public byte readByte(long pos) throws IOException {
+    return byteAt(pos);
+  }
+
+  @Override
+  public short readShort(long pos) throws IOException {
+    return shortAt(pos);
+  }
+
+  @Override
+  public int readInt(long pos) throws IOException {
+    return intAt(pos);
+  }
+
+  @Override
+  public long readLong(long pos) throws IOException {
+    return longAt(pos);
+  }
+
+  // positional reads resolve against the whole file, so slices only offset the public methods
+
+  private byte byteAt(long pos) throws IOException {
+    return positionalBuffer(pos).get((int) (pos % blockSize));
+  }
+
+  private short shortAt(long pos) throws IOException {
+    int p = (int) (pos % blockSize);
+    if (blockSize - p >= 2) {
+      return positionalBuffer(pos + 1).getShort(p);
+    }
+    return (short) (((byteAt(pos) & 0xFF) << 8) | (byteAt(pos + 1) & 0xFF));
+  }
+
+  private int intAt(long pos) throws IOException {
+    int p = (int) (pos % blockSize);
+    if (blockSize - p >= 4) {
+      return positionalBuffer(pos + 3).getInt(p);
+    }
+    return ((byteAt(pos) & 0xFF) << 24) | ((byteAt(pos + 1) & 0xFF) << 16)
+        | ((byteAt(pos + 2) & 0xFF) << 8) | (byteAt(pos + 3) & 0xFF);
+  }
+
+  private long longAt(long pos) throws IOException {
+    int p = (int) (pos % blockSize);
+    if (blockSize - p >= 8) {
+      return positionalBuffer(pos + 7).getLong(p);
+    }
+    return ((long) intAt(pos) << 32) | (intAt(pos + 4) & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Returns the block holding the byte at a position for positional reads, which do not touch
+   * the current block of the input.
+   */
+  private ByteBuffer positionalBuffer(long pos) throws IOException {
+    if (pos < 0 || pos >= this.length) {
+      throw new EOFException("seek past EOF: pos=" + pos + " vs length=" + this.length + ": "
+          + this);
+    }
+    int index = (int) (pos / blockSize);
+    if (index != this.positionalBufferIndex) {
+      this.positionalBuffer = this.file.isInline()
+          ? ByteBuffer.wrap(this.file.getInlineBlock(index))
+          : this.directory.readBlock(this.file, index);
+      this.positionalBufferIndex = index;
+      this.directory.metrics.addBytesRead(this.file.getFileType(), this.file.blockLength(index));
+    }
+    return this.positionalBuffer;
+  }
+
   private final void switchCurrentBuffer(boolean enforceEOF) throws IOException {
-    this.bufferStart = BUFFER_SIZE * (long) this.currentBufferIndex;
-    if (this.bufferStart <= this.length && this.currentBufferIndex < this.file.numBuffers()) {
-      this.currentBuffer = this.file.getBuffer(this.currentBufferIndex);
+    this.bufferStart = blockSize * (long) this.currentBufferIndex;
+    if (this.bufferStart <= this.length && this.currentBufferIndex < this.file.numBlocks()) {
+      // bulk reads move the position, so each input reads its own view of the shared block
+      this.currentBuffer = this.loadBuffer(this.currentBufferIndex).duplicate();
       this.bufferPosition = 0;
       long buflen = this.length - this.bufferStart;
-      this.bufferLength = buflen > BUFFER_SIZE ? BUFFER_SIZE : (int) buflen;
+      this.bufferLength = buflen > blockSize ? blockSize : (int) buflen;
+      this.directory.metrics.addBytesRead(this.file.getFileType(), this.bufferLength);
     } else {
       if (enforceEOF) {
         throw new EOFException("read past EOF: " + this);
       }
 
       --this.currentBufferIndex;
-      this.bufferPosition = BUFFER_SIZE;
+      this.bufferPosition = blockSize;
     }
 
   }
 
+  private ByteBuffer loadBuffer(int index) throws IOException {
+    if (this.file.isInline()) {
+      return ByteBuffer.wrap(this.file.getInlineBlock(index));
+    }
+    this.sequentialLoads = index == this.lastLoadedIndex + 1 ? this.sequentialLoads + 1 : 0;
+    this.lastLoadedIndex = index;
+    Future<byte[]> prefetch = this.prefetches != null ? this.prefetches.remove(index) : null;
+    ByteBuffer block = prefetch != null
+        ? this.directory.awaitBlock(this.file, index, prefetch)
+        : this.directory.readBlock(this.file, index);
+    int depth = this.directory.config.getReadAheadBlocks();
+    if (depth > 0 && (this.sequential || this.sequentialLoads >= SEQUENTIAL_THRESHOLD)) {
+      this.readAhead(index + 1, Math.min(index + 1 + depth, this.file.numBlocks()));
+    }
+    return block;
+  }
+
+  private void readAhead(int from, int to) {
+    if (this.prefetches == null) {
+      this.prefetches = new HashMap<>();
+    }
+    Iterator<Integer> it = this.prefetches.keySet().iterator();
+    while (it.hasNext()) {
+      int index = it.next();
+      if (index < from || index >= to) {
+        it.remove();
+      }
+    }
+    for (int i = from; i < to; i++) {
+      if (!this.prefetches.containsKey(i)) {
+        Future<byte[]> prefetch = this.directory.readBlockAsync(this.file, i);
+        if (prefetch != null) {
+          this.prefetches.put(i, prefetch);
+        }
+      }
+    }
+  }
+
+  @Override
+  public HInputStream clone() {
+    HInputStream clone = (HInputStream) super.clone();
+    // readBytes moves the position of the buffer, so clones read on other threads need their own
+    clone.currentBuffer = currentBuffer == null ? null : currentBuffer.duplicate();
+    clone.prefetches = null;
+    clone.lastLoadedIndex = -1;
+    clone.sequentialLoads = 0;
+    return clone;
+  }
+
   public long getFilePointer() {
     return this.currentBufferIndex < 0 ? 0L : this.bufferStart + (long) this.bufferPosition;
   }
 
   public void seek(long pos) throws IOException {
     if (this.currentBuffer == null || pos < this.bufferStart
-        || pos >= this.bufferStart + BUFFER_SIZE) {
-      this.currentBufferIndex = (int) (pos / BUFFER_SIZE);
+        || pos >= this.bufferStart + blockSize) {
+      this.currentBufferIndex = (int) (pos / blockSize);
       this.switchCurrentBuffer(false);
     }
 
-    this.bufferPosition = (int) (pos % BUFFER_SIZE);
+    this.bufferPosition = (int) (pos % blockSize);
+  }
+
+  @Override
+  public RandomAccessInput randomAccessSlice(long offset, long length) throws IOException {
+    return (RandomAccessInput) slice("randomaccess", offset, length);
   }
 
   public IndexInput slice(String sliceDescription, final long offset, long length)
       throws IOException {
     if (offset >= 0L && length >= 0L && offset + length <= this.length) {
-      return new HInputStream(
-          this.file, this.getFullSliceDescription(sliceDescription), offset + length) {
+      return new HInputStream(this.directory, this.file,
+          this.getFullSliceDescription(sliceDescription), offset + length, this.sequential) {
         {
           this.seek(0L);
         }
@@ -133,6 +402,33 @@ public class HInputStream extends IndexInput implements Cloneable {
           return super.length() - offset;
         }
 
+        @Override
+        public byte readByte(long pos) throws IOException {
+          return super.readByte(checkPosition(pos) + offset);
+        }
+
+        @Override
+        public short readShort(long pos) throws IOException {
+          return super.readShort(checkPosition(pos) + offset);
+        }
+
+        @Override
+        public int readInt(long pos) throws IOException {
+          return super.readInt(checkPosition(pos) + offset);
+        }
+
+        @Override
+        public long readLong(long pos) throws IOException {
+          return super.readLong(checkPosition(pos) + offset);
+        }
+
+        private long checkPosition(long pos) throws EOFException {
+          if (pos < 0L) {
+            throw new EOFException("Negative position: " + pos + ": " + this);
+          }
+          return pos;
+        }
+
         public IndexInput slice(String sliceDescription, long ofs, long len) throws IOException {
           return super.slice(sliceDescription, offset + ofs, len);
         }
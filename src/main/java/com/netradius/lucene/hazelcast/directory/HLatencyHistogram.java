@@ -0,0 +1,140 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Low overhead latency histogram with power of two microsecond buckets, recorded from many
+ * threads without locking. Percentiles are reported as the upper bound of their bucket.
+ *
+ * @author Erik R. Jensen
+ */
+public class HLatencyHistogram {
+
+  private static final int BUCKETS = 40;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+  public HLatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Records the time elapsed since a start time.
+   *
+   * @param startNanos the start time as returned by {@link System#nanoTime()}
+   */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos the latency in nanoseconds
+   */
+  public void record(long nanos) {
+    long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+    buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))].increment();
+    count.increment();
+    totalNanos.add(nanos);
+    maxNanos.accumulate(nanos);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Returns the latency below which a fraction of the recorded latencies fall.
+   *
+   * @param fraction the fraction, e.g. 0.99
+   * @return the latency in microseconds
+   */
+  public long percentileMicros(double fraction) {
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets[i].sum();
+      total += counts[i];
+    }
+    long rank = (long) Math.ceil(total * fraction);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank && seen > 0) {
+        return i == 0 ? 0 : (1L << i) - 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns a summary of the recorded latencies.
+   */
+  public Stats getStats() {
+    long n = count.sum();
+    return new Stats(n, n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / n),
+        percentileMicros(0.5), percentileMicros(0.99),
+        TimeUnit.NANOSECONDS.toMicros(maxNanos.get()));
+  }
+
+  @Override
+  public String toString() {
+    return getStats().toString();
+  }
+
+  /**
+   * Summary of a histogram, exposed over JMX as composite data.
+   */
+  public static class Stats {
+
+    private final long count;
+    private final long meanMicros;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+
+    @ConstructorProperties({"count", "meanMicros", "p50Micros", "p99Micros", "maxMicros"})
+    public Stats(long count, long meanMicros, long p50Micros, long p99Micros, long maxMicros) {
+      this.count = count;
+      this.meanMicros = meanMicros;
+      this.p50Micros = p50Micros;
+      this.p99Micros = p99Micros;
+      this.maxMicros = maxMicros;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMeanMicros() {
+      return meanMicros;
+    }
+
+    public long getP50Micros() {
+      return p50Micros;
+    }
+
+    public long getP99Micros() {
+      return p99Micros;
+    }
+
+    public long getMaxMicros() {
+      return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+      return "count=" + count + ", meanMicros=" + meanMicros + ", p50Micros=" + p50Micros
+          + ", p99Micros=" + p99Micros + ", maxMicros=" + maxMicros;
+    }
+  }
+}
@@ -0,0 +1,354 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.config.MapStoreConfig;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.MapLoaderLifecycleSupport;
+import com.hazelcast.core.MapStore;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.store.NativeFSLockFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Map store persisting a map of a HazelcastDirectory to append-only files on disk, so an index
+ * survives a restart of the whole cluster without being rebuilt. Each partition of the map is
+ * kept in its own {@link HStoreLog}, written only by the member owning the partition, and loaded
+ * by Hazelcast in parallel per partition when the map is first used after a restart. Entries not
+ * needed by the latest complete commit of the index are skipped when loading and removed from
+ * the files, see {@link HFileStore}.
+ *
+ * <p>The files of a map are written by a single member, guarded by a native lock, as the files
+ * of a partition are only read back when the member opens them. A member opening a map whose
+ * files are in use by another member or process fails. Hazelcast asks a single member for the
+ * keys to load, so a map can only be persisted on a cluster of one member. The number of
+ * partitions must not change between restarts.
+ *
+ * <p>Configure {@link HFileStore} for the metadata map of an index and {@link HBlockStore} for
+ * its blocks map with the same path, e.g. using {@link #newConfig(Class, Path, int, boolean)}.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ *
+ * @author Erik R. Jensen
+ */
+@Slf4j
+public abstract class HMapStore<K, V> implements MapStore<K, V>, MapLoaderLifecycleSupport {
+
+  /**
+   * Map store property holding the directory to keep the files of all maps in.
+   */
+  public static final String PATH_PROPERTY = "path";
+
+  // entries written in one go by write behind
+  private static final int WRITE_BATCH_SIZE = 1000;
+
+  private static final String LOG_SUFFIX = ".log";
+  private static final String LOCK_NAME = "write.lock";
+
+  protected HazelcastInstance hazelcastInstance;
+  protected String mapName;
+  protected Path root;
+  protected Path path;
+  protected boolean readOnly;
+  private final Map<Integer, HStoreLog> logs = new HashMap<>();
+  private Lock lock;
+
+  /**
+   * Returns the configuration of a map store.
+   *
+   * @param type {@link HFileStore} or {@link HBlockStore}
+   * @param path the directory to keep the files in
+   * @param writeDelaySeconds the number of seconds changes are written behind, 0 to write them
+   *     before a map operation returns
+   * @param eagerLoad true to load a map completely when it is created, false to load it on
+   *     first use
+   * @return the configuration
+   */
+  public static MapStoreConfig newConfig(Class<? extends HMapStore<?, ?>> type, Path path,
+      int writeDelaySeconds, boolean eagerLoad) {
+    return new MapStoreConfig()
+        .setEnabled(true)
+        .setClassName(type.getName())
+        .setProperty(PATH_PROPERTY, path.toAbsolutePath().toString())
+        .setWriteDelaySeconds(writeDelaySeconds)
+        .setWriteBatchSize(writeDelaySeconds > 0 ? WRITE_BATCH_SIZE : 1)
+        .setInitialLoadMode(eagerLoad ? MapStoreConfig.InitialLoadMode.EAGER
+            : MapStoreConfig.InitialLoadMode.LAZY);
+  }
+
+  @Override
+  public void init(HazelcastInstance hazelcastInstance, Properties properties, String mapName) {
+    String path = properties.getProperty(PATH_PROPERTY);
+    if (path == null) {
+      throw new IllegalArgumentException("No " + PATH_PROPERTY + " set for the map store of "
+          + mapName);
+    }
+    try {
+      open(hazelcastInstance, Paths.get(path), mapName, false);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to open the map store of " + mapName, ex);
+    }
+  }
+
+  /**
+   * Opens the files of a map.
+   *
+   * @param hazelcastInstance the member
+   * @param root the directory to keep the files of all maps in
+   * @param mapName the name of the map
+   * @param readOnly true to only read files written by the store of the map
+   * @throws IOException if the directory of the map could not be created or is in use
+   */
+  void open(HazelcastInstance hazelcastInstance, Path root, String mapName, boolean readOnly)
+      throws IOException {
+    this.hazelcastInstance = hazelcastInstance;
+    this.mapName = mapName;
+    this.root = root;
+    this.path = root.resolve(mapName);
+    this.readOnly = readOnly;
+    if (!readOnly) {
+      try (Directory directory = FSDirectory.open(Files.createDirectories(path),
+          NativeFSLockFactory.INSTANCE)) {
+        lock = directory.obtainLock(LOCK_NAME);
+      } catch (LockObtainFailedException ex) {
+        throw new IOException(path + " is in use by another member, members must not share the"
+            + " path of a map store", ex);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void destroy() {
+    for (HStoreLog file : logs.values()) {
+      try {
+        file.close();
+      } catch (IOException ex) {
+        log.warn("Failed to close " + file + ": " + ex.getMessage());
+      }
+    }
+    logs.clear();
+    if (lock != null) {
+      try {
+        lock.close();
+      } catch (IOException ex) {
+        log.warn("Failed to release the lock of " + path + ": " + ex.getMessage());
+      }
+      lock = null;
+    }
+  }
+
+  /**
+   * Encodes a key, equal keys must have equal encodings.
+   */
+  protected abstract byte[] encodeKey(K key);
+
+  protected abstract K decodeKey(byte[] key) throws IOException;
+
+  protected abstract byte[] encodeValue(V value) throws IOException;
+
+  protected abstract V decodeValue(byte[] value) throws IOException;
+
+  /**
+   * Selects the keys to load when a map is loaded after a restart. The others are removed from
+   * the files.
+   *
+   * @param keys all keys stored
+   * @return the keys to load
+   * @throws IOException if the entries could not be read
+   */
+  protected abstract Collection<K> select(Collection<K> keys) throws IOException;
+
+  private int partitionId(K key) {
+    return hazelcastInstance.getPartitionService().getPartition(key).getPartitionId();
+  }
+
+  /**
+   * Returns the file of a partition, or null if it does not exist and should not be created.
+   */
+  private synchronized HStoreLog file(int partitionId, boolean create) throws IOException {
+    HStoreLog file = logs.get(partitionId);
+    if (file == null) {
+      Path filePath = path.resolve(partitionId + LOG_SUFFIX);
+      if (!Files.exists(filePath) && (readOnly || !create)) {
+        return null;
+      }
+      file = new HStoreLog(filePath, !readOnly);
+      logs.put(partitionId, file);
+    }
+    return file;
+  }
+
+  /**
+   * Reads the value of a key.
+   *
+   * @param key the key
+   * @return the value or null if it is not stored
+   * @throws IOException if the value could not be read
+   */
+  V read(K key) throws IOException {
+    HStoreLog file = file(partitionId(key), false);
+    byte[] value = file != null ? file.get(ByteBuffer.wrap(encodeKey(key))) : null;
+    return value != null ? decodeValue(value) : null;
+  }
+
+  /**
+   * Returns true if a key is stored, without reading its value.
+   *
+   * @param key the key
+   * @return true if the key is stored
+   * @throws IOException if the files could not be read
+   */
+  boolean contains(K key) throws IOException {
+    HStoreLog file = file(partitionId(key), false);
+    return file != null && file.contains(ByteBuffer.wrap(encodeKey(key)));
+  }
+
+  /**
+   * Returns all keys stored.
+   *
+   * @return the keys
+   * @throws IOException if the files could not be read
+   */
+  List<K> keys() throws IOException {
+    List<K> keys = new ArrayList<>();
+    if (!Files.isDirectory(path)) {
+      return keys;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*" + LOG_SUFFIX)) {
+      for (Path filePath : files) {
+        String name = filePath.getFileName().toString();
+        String partition = name.substring(0, name.length() - LOG_SUFFIX.length());
+        if (!partition.matches("\\d+")) {
+          continue;
+        }
+        HStoreLog file = file(Integer.parseInt(partition), false);
+        if (file != null) {
+          for (ByteBuffer key : file.keys()) {
+            byte[] bytes = new byte[key.remaining()];
+            key.get(bytes);
+            keys.add(decodeKey(bytes));
+          }
+        }
+      }
+    }
+    return keys;
+  }
+
+  private void write(Map<K, V> entries) throws IOException {
+    Map<Integer, Map<ByteBuffer, byte[]>> partitions = new HashMap<>();
+    for (Map.Entry<K, V> entry : entries.entrySet()) {
+      partitions.computeIfAbsent(partitionId(entry.getKey()), id -> new LinkedHashMap<>()).put(
+          ByteBuffer.wrap(encodeKey(entry.getKey())),
+          entry.getValue() != null ? encodeValue(entry.getValue()) : null);
+    }
+    for (Map.Entry<Integer, Map<ByteBuffer, byte[]>> partition : partitions.entrySet()) {
+      // deleting from a partition never written needs no file
+      boolean stores = partition.getValue().values().stream().anyMatch(value -> value != null);
+      HStoreLog file = file(partition.getKey(), stores);
+      if (file != null) {
+        file.append(partition.getValue());
+      }
+    }
+  }
+
+  @Override
+  public V load(K key) {
+    try {
+      return read(key);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to load " + key + " of " + mapName, ex);
+    }
+  }
+
+  @Override
+  public Map<K, V> loadAll(Collection<K> keys) {
+    Map<K, V> entries = new HashMap<>();
+    for (K key : keys) {
+      V value = load(key);
+      if (value != null) {
+        entries.put(key, value);
+      }
+    }
+    return entries;
+  }
+
+  @Override
+  public Iterable<K> loadAllKeys() {
+    try {
+      List<K> keys = keys();
+      if (keys.isEmpty()) {
+        return keys;
+      }
+      Collection<K> selected = select(keys);
+      Set<K> skipped = new HashSet<>(keys);
+      skipped.removeAll(selected);
+      if (!skipped.isEmpty()) {
+        log.info("Skipping " + skipped.size() + " of " + keys.size() + " entries of " + mapName
+            + " not needed by the latest commit");
+        deleteAll(skipped);
+      }
+      return selected;
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to list the entries of " + mapName, ex);
+    }
+  }
+
+  @Override
+  public void store(K key, V value) {
+    storeAll(Collections.singletonMap(key, value));
+  }
+
+  @Override
+  public void storeAll(Map<K, V> entries) {
+    try {
+      write(entries);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to store " + entries.size() + " entries of "
+          + mapName, ex);
+    }
+  }
+
+  @Override
+  public void delete(K key) {
+    deleteAll(Collections.singleton(key));
+  }
+
+  @Override
+  public void deleteAll(Collection<K> keys) {
+    Map<K, V> deletes = new HashMap<>();
+    for (K key : keys) {
+      deletes.put(key, null);
+    }
+    try {
+      write(deletes);
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to delete " + keys.size() + " entries of " + mapName,
+          ex);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(path=" + path + ")";
+  }
+}
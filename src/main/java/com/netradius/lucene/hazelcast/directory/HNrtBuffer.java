@@ -0,0 +1,80 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import org.apache.lucene.store.IOContext;
+
+/**
+ * Budget of local memory for near-real-time buffering. Small new files are kept in local memory
+ * until they are synced, so files deleted before, such as those of near-real-time segments merged
+ * away, never reach the cluster. A file is stored in the cluster as it is written once it grows
+ * past the maximum file size or the buffer is full.
+ *
+ * @author Erik R. Jensen
+ */
+public class HNrtBuffer {
+
+  private final HazelcastDirectoryConfig config;
+  private final HDirectoryMetrics metrics;
+
+  HNrtBuffer(HazelcastDirectoryConfig config, HDirectoryMetrics metrics) {
+    this.config = config;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns true if a new file is kept in local memory until it is synced.
+   *
+   * @param context the context the file is created with
+   * @return true if the file may be buffered
+   */
+  boolean isBuffered(IOContext context) {
+    long maxFileSize = config.getNrtMaxFileSize();
+    if (maxFileSize <= 0) {
+      return false;
+    }
+    if (context.mergeInfo != null) {
+      return context.mergeInfo.estimatedMergeBytes <= maxFileSize;
+    }
+    if (context.flushInfo != null) {
+      return context.flushInfo.estimatedSegmentSize <= maxFileSize;
+    }
+    return true;
+  }
+
+  /**
+   * Reserves room for another block of a buffered file.
+   *
+   * @param fileLength the length of the file including the block
+   * @param bytes the size of the block
+   * @return false if the file should be stored in the cluster instead
+   */
+  boolean reserve(long fileLength, int bytes) {
+    if (fileLength > config.getNrtMaxFileSize()) {
+      return false;
+    }
+    if (metrics.nrtBufferedBytes.addAndGet(bytes) > config.getNrtMaxBuffered()) {
+      metrics.nrtBufferedBytes.addAndGet(-bytes);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Releases the room taken by blocks that were stored or discarded.
+   *
+   * @param bytes the size of the blocks
+   */
+  void release(long bytes) {
+    metrics.nrtBufferedBytes.addAndGet(-bytes);
+  }
+
+  /**
+   * Drops a buffered file deleted before it was synced.
+   *
+   * @param output the output of the file
+   */
+  void discard(HOutputStream output) {
+    output.discardBuffer();
+    output.dirty = false;
+    metrics.nrtDiscardedFiles.increment();
+  }
+}
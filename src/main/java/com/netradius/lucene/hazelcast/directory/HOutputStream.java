@@ -1,22 +1,48 @@
 package com.netradius.lucene.hazelcast.directory;
 
-import com.hazelcast.core.IMap;
 import org.apache.lucene.store.BufferedChecksum;
 import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.util.Accountable;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
 /**
  * Random access Output stream for output to a file in directory, used for lucene index output
- * operations.
+ * operations. Blocks are stored in the cluster asynchronously as soon as they are full, with a
+ * bounded number of writes in flight, so only the current block is held in memory. On flush the
+ * last block is stored and the writes are awaited before the file metadata is published. Files
+ * up to the inline threshold are stored with their metadata instead.
+ *
+ * <p>Closing an output does not publish the file, it is handed to the directory which publishes
+ * the last blocks and metadata of all files passed to {@link HazelcastDirectory#sync} in one
+ * batch, or a single file as soon as it is opened, renamed or copied.
+ *
+ * <p>A buffered output keeps its full blocks in memory instead of storing them, until the file
+ * is published or grows past the size configured by
+ * {@link HazelcastDirectoryConfig#getNrtMaxFileSize()}.
+ *
+ * <p>The blocks of a deduplicated file are referenced by content, so the last block published
+ * by a flush is released once the file grows past it.
  *
  * @author Dilip S Sisodia
  */
 public class HOutputStream extends IndexOutput implements Accountable {
+  /**
+   * Block size of files created without a configured block size and of legacy entries.
+   */
   static final int BUFFER_SIZE = 1024;
   private final Checksum crc;
   boolean dirty;
@@ -25,7 +51,15 @@ public class HOutputStream extends IndexOutput implements Accountable {
   int bufferPosition;
   int currentBufferIndex;
   long bufferStart;
-  IMap<String, HFile> store;
+  final Deque<Future<?>> pendingWrites = new ArrayDeque<>();
+  byte[] lastBlock;
+  // full blocks kept in memory while the file is buffered, null once it is stored in the cluster
+  List<byte[]> bufferedBlocks;
+  // the last block of a deduplicated file as last published, released when it is replaced
+  HBlockKey publishedLast;
+  int publishedLastIndex;
+  private long countedLength;
+  HazelcastDirectory directory;
   HFile file;
   String name;
 
@@ -54,17 +88,28 @@ public class HOutputStream extends IndexOutput implements Accountable {
   }
 
   public HOutputStream(final String name, final HFile f,
-                       final IMap<String, HFile> store) {
+                       final HazelcastDirectory directory) {
     super("HOutputStream(name=\"" + name + "\")");
     file = f;
     this.name = name;
-    this.store = store;
+    this.directory = directory;
     currentBufferIndex = -1;
     currentBuffer = null;
     crc = new BufferedChecksum(new CRC32());
   }
 
-  public void reset() {
+  public void reset() throws IOException {
+    awaitWrites(0);
+    if (file.isDeduplicated()) {
+      // the blocks written again may have different content
+      directory.deleteBlocks(file);
+      file.clearBlockHashes();
+      publishedLast = null;
+    }
+    if (bufferedBlocks != null) {
+      discardBuffer();
+      bufferedBlocks = new ArrayList<>();
+    }
     currentBuffer = null;
     currentBufferIndex = -1;
     bufferPosition = 0;
@@ -78,8 +123,11 @@ public class HOutputStream extends IndexOutput implements Accountable {
 
   @Override
   public void close() throws IOException {
-    if (dirty) {
-      flush();
+    // buffered files are not stored when created, so empty ones are published too
+    if (dirty || bufferedBlocks != null) {
+      finish();
+      directory.addPendingOutput(this);
+      directory.openOutputs.remove(name, this);
     }
   }
 
@@ -120,16 +168,142 @@ public class HOutputStream extends IndexOutput implements Accountable {
   }
 
   private void switchCurrentBuffer() throws IOException {
-    if (currentBufferIndex == file.numBuffers()) {
-      currentBuffer = file.addBuffer(BUFFER_SIZE);
+    if (currentBuffer == null) {
+      currentBuffer = new byte[file.getBlockSize()];
+    } else if (bufferedBlocks != null
+        && directory.nrtBuffer.reserve(bufferStart + currentBuffer.length, currentBuffer.length)) {
+      bufferedBlocks.add(currentBuffer);
+      currentBuffer = new byte[file.getBlockSize()];
     } else {
-      currentBuffer = file.getBuffer(currentBufferIndex);
+      spill();
+      // the block is serialized when the write is issued so its buffer can be reused right away
+      writeBlock(currentBufferIndex - 1, currentBuffer);
     }
     bufferPosition = 0;
-    bufferStart = (long) BUFFER_SIZE * (long) currentBufferIndex;
+    bufferStart = (long) file.getBlockSize() * (long) currentBufferIndex;
     bufferLength = currentBuffer.length;
   }
 
+  private void writeBlock(int index, byte[] block) throws IOException {
+    // near the quota each block is written before the next one is started
+    boolean throttled = directory.quota.check(name);
+    awaitWrites(throttled ? 0 : directory.config.getMaxPendingWrites() - 1);
+    byte[] stored = directory.compressBlock(file, block);
+    file.setBlockChecksum(index, stored);
+    pendingWrites.add(directory.writeBlockAsync(file, index, stored));
+    releasePublishedLast(index);
+    // counted as it is written so large files reach the quota before they are closed
+    file.updateSizeInBytes((long) index * file.getBlockSize() + block.length);
+  }
+
+  /**
+   * Stores the buffered blocks in the cluster and stops buffering.
+   */
+  private void spill() throws IOException {
+    if (bufferedBlocks == null) {
+      return;
+    }
+    List<byte[]> blocks = bufferedBlocks;
+    discardBuffer();
+    for (int i = 0; i < blocks.size(); i++) {
+      writeBlock(i, blocks.get(i));
+    }
+  }
+
+  /**
+   * Returns true if nothing of the file has been stored in the cluster yet.
+   */
+  boolean isBuffered() {
+    return bufferedBlocks != null;
+  }
+
+  /**
+   * Returns a snapshot of a closed buffered file reading the content held by this output.
+   */
+  HFileSnapshot bufferedSnapshot() {
+    if (file.isInline()) {
+      return file.snapshot(name);
+    }
+    byte[][] blocks = bufferedBlocks.toArray(new byte[bufferedBlocks.size() + 1][]);
+    blocks[bufferedBlocks.size()] = Arrays.copyOf(currentBuffer,
+        (int) (file.getLength() - bufferStart));
+    return new HFileSnapshot(HazelcastDirectoryConfig.fileType(name), file.getFileId(),
+        file.getBlockSize(), file.getLength(), blocks.length, file.getChecksum(),
+        file.getCompression(), blocks, null);
+  }
+
+  /**
+   * Hands the content of a closed buffered file to the directory publishing it.
+   *
+   * @param blocks the blocks to store, the last block is kept as {@link #lastBlock}
+   * @throws IOException if a block could not be compressed
+   */
+  void unbuffer(Map<HBlockKey, byte[]> blocks) throws IOException {
+    if (!file.isInline()) {
+      for (int i = 0; i < bufferedBlocks.size(); i++) {
+        byte[] stored = directory.compressBlock(file, bufferedBlocks.get(i));
+        file.setBlockChecksum(i, stored);
+        if (file.isDeduplicated()) {
+          pendingWrites.add(directory.writeBlockAsync(file, i, stored));
+        } else {
+          blocks.put(new HBlockKey(file.getFileId(), i), stored);
+        }
+      }
+      lastBlock = directory.compressBlock(file, Arrays.copyOf(currentBuffer,
+          (int) (file.getLength() - bufferStart)));
+      file.setBlockChecksum(currentBufferIndex, lastBlock);
+    }
+    discardBuffer();
+    file.updateSizeInBytes(file.getLength());
+  }
+
+  /**
+   * Stores the last block of a deduplicated file while it is published, releasing the last block
+   * published before.
+   */
+  void writeLastBlock() {
+    pendingWrites.add(directory.writeBlockAsync(file, currentBufferIndex, lastBlock));
+    releasePublishedLast(currentBufferIndex);
+    publishedLast = file.blockKey(currentBufferIndex);
+    publishedLastIndex = currentBufferIndex;
+  }
+
+  /**
+   * Releases the last block as last published once a block is written at an index. A block
+   * referenced again at the same index with the same content is kept, as it is referenced once.
+   */
+  private void releasePublishedLast(int index) {
+    if (publishedLast != null
+        && (index != publishedLastIndex || !publishedLast.equals(file.blockKey(index)))) {
+      pendingWrites.add(directory.dedup.release(publishedLast, file.getFileId(),
+          publishedLastIndex));
+    }
+    publishedLast = null;
+  }
+
+  /**
+   * Drops the buffered blocks, releasing their share of the buffer.
+   */
+  void discardBuffer() {
+    directory.nrtBuffer.release((long) bufferedBlocks.size() * file.getBlockSize());
+    bufferedBlocks = null;
+  }
+
+  void awaitWrites(int maxPending) throws IOException {
+    try {
+      while (pendingWrites.size() > maxPending) {
+        pendingWrites.peek().get();
+        pendingWrites.poll();
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while writing " + name);
+    } catch (ExecutionException ex) {
+      pendingWrites.clear();
+      throw new IOException("Failed to write " + name, ex.getCause());
+    }
+  }
+
   private void setFileLength() {
     long pointer = bufferStart + bufferPosition;
     if (pointer > file.length) {
@@ -138,9 +312,45 @@ public class HOutputStream extends IndexOutput implements Accountable {
   }
 
   public void flush() throws IOException {
+    finish();
+    directory.addPendingOutput(this);
+    directory.publishPending(Collections.singleton(name));
+  }
+
+  /**
+   * Completes the file metadata, keeping the last partial block until the file is published.
+   */
+  void finish() throws IOException {
     setFileLength();
-    store.put(name, file);
-    dirty = false;
+    long length = file.getLength();
+    int lastLength = (int) (length - bufferStart);
+    if (length <= directory.config.getInlineThreshold() && length <= file.getBlockSize()) {
+      file.setInlineContent(currentBuffer == null
+          ? new byte[0] : Arrays.copyOf(currentBuffer, lastLength));
+      lastBlock = null;
+    } else if (bufferedBlocks != null) {
+      file.setInline(false);
+      // stored with the buffered blocks when the file is published
+      lastBlock = null;
+    } else {
+      file.setInline(false);
+      // the last block may still grow so it is written again on the next flush
+      lastBlock = lastLength > 0
+          ? directory.compressBlock(file, Arrays.copyOf(currentBuffer, lastLength)) : null;
+      if (lastBlock != null) {
+        file.setBlockChecksum(currentBufferIndex, lastBlock);
+      }
+    }
+    if (bufferedBlocks == null) {
+      // buffered files are counted once they are published
+      file.updateSizeInBytes(length);
+    }
+    directory.metrics.addBytesWritten(HazelcastDirectoryConfig.fileType(name),
+        length - countedLength);
+    countedLength = length;
+    if (crc != null) {
+      file.setChecksum(crc.getValue());
+    }
   }
 
   @Override
@@ -150,7 +360,7 @@ public class HOutputStream extends IndexOutput implements Accountable {
 
   @Override
   public long ramBytesUsed() {
-    return (long) file.numBuffers() * (long) BUFFER_SIZE;
+    return currentBuffer == null ? 0 : currentBuffer.length;
   }
 
   @Override
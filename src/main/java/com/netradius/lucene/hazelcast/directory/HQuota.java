@@ -0,0 +1,144 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.core.ExecutionCallback;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IAtomicLong;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.IdGenerator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Size of an index across the cluster and the quota it is held to. The size is counted in an
+ * atomic long next to the metadata map, updated asynchronously by every directory of the index
+ * as files grow and are deleted. With a quota configured, writes are throttled above its soft
+ * limit and rejected once it is reached, and {@link HQuotaListener}s are told when the soft limit
+ * is crossed.
+ *
+ * @author Erik R. Jensen
+ */
+@Slf4j
+public class HQuota {
+
+  // how long writers rely on the last known index size when checking the quota
+  private static final long SIZE_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final String indexName;
+  private final HazelcastDirectoryConfig config;
+  private final HDirectoryMetrics metrics;
+  final IAtomicLong sizeInBytes;
+  private volatile long sizeRefreshed = System.nanoTime();
+  private final AtomicBoolean warned = new AtomicBoolean();
+  private final List<HQuotaListener> listeners = new CopyOnWriteArrayList<>();
+  private final ExecutionCallback<Long> sizeUpdated = new ExecutionCallback<Long>() {
+    @Override
+    public void onResponse(Long size) {
+      metrics.indexBytes = size;
+    }
+
+    @Override
+    public void onFailure(Throwable throwable) {
+      log.warn("Failed to update the size of " + indexName + ": " + throwable.getMessage());
+    }
+  };
+
+  HQuota(HazelcastInstance hazelcastInstance, String indexName, HazelcastDirectoryConfig config,
+      HDirectoryMetrics metrics) {
+    this.indexName = indexName;
+    this.config = config;
+    this.metrics = metrics;
+    this.sizeInBytes = hazelcastInstance.getAtomicLong(indexName + "-size");
+    metrics.indexBytes = sizeInBytes.get();
+  }
+
+  /**
+   * Returns the number of bytes the files of the index take up across the cluster.
+   */
+  public long sizeInBytes() {
+    long size = sizeInBytes.get();
+    metrics.indexBytes = size;
+    sizeRefreshed = System.nanoTime();
+    return size;
+  }
+
+  /**
+   * Recounts the size of the index from the metadata of its files. Only replaces a size of 0,
+   * so concurrent recounts do not conflict. New file ids are made to follow the ids in use, which
+   * the cluster has also lost after a restart.
+   *
+   * @param store the metadata map
+   * @param fileIds the generator of file ids
+   * @return the size of the index
+   */
+  long recount(IMap<String, HFile> store, IdGenerator fileIds) {
+    long size = 0;
+    long maxFileId = 0;
+    for (HFile file : store.values()) {
+      size += file.getSizeInBytes();
+      maxFileId = Math.max(maxFileId, file.getFileId());
+    }
+    // has no effect once ids beyond it have been handed out
+    fileIds.init(maxFileId);
+    sizeInBytes.compareAndSet(0, size);
+    return sizeInBytes();
+  }
+
+  /**
+   * Adjusts the size of the index without waiting for the cluster.
+   *
+   * @param delta the number of bytes added or removed
+   */
+  void add(long delta) {
+    if (delta != 0) {
+      metrics.track(sizeInBytes.addAndGetAsync(delta)).andThen(sizeUpdated);
+    }
+  }
+
+  /**
+   * Checks the quota of the index before more content is written. The size is only read from
+   * the cluster once a second, in between writers rely on the size seen by their own updates.
+   *
+   * @param name the file about to be written
+   * @return true if the writer should be throttled
+   * @throws IOException if the index has reached its quota
+   */
+  boolean check(String name) throws IOException {
+    long quota = config.getQuota();
+    if (quota <= 0) {
+      return false;
+    }
+    long size = System.nanoTime() - sizeRefreshed > SIZE_REFRESH_NANOS
+        ? sizeInBytes() : metrics.indexBytes;
+    if (size >= quota) {
+      metrics.quotaRejections.increment();
+      throw new IOException("Index " + indexName + " reached its quota of " + quota
+          + " bytes, writing " + name + " rejected");
+    }
+    if (size < quota * config.getQuotaSoftLimit()) {
+      warned.set(false);
+      return false;
+    }
+    metrics.quotaThrottles.increment();
+    if (warned.compareAndSet(false, true)) {
+      log.warn("Index " + indexName + " is using " + size + " of its quota of " + quota
+          + " bytes, throttling writes");
+      for (HQuotaListener listener : listeners) {
+        listener.onQuotaWarning(indexName, size, quota);
+      }
+    }
+    return true;
+  }
+
+  public void addListener(HQuotaListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(HQuotaListener listener) {
+    listeners.remove(listener);
+  }
+}
@@ -0,0 +1,20 @@
+package com.netradius.lucene.hazelcast.directory;
+
+/**
+ * Notified when an index grows past the soft limit of its quota, for example to merge away
+ * deleted documents with {@code IndexWriter.forceMergeDeletes()} before writes are rejected.
+ * Called on the writing thread, so implementations should hand off long running work.
+ *
+ * @author Erik R. Jensen
+ */
+public interface HQuotaListener {
+
+  /**
+   * Called once each time the index crosses the soft limit of its quota.
+   *
+   * @param indexName the name of the index
+   * @param sizeInBytes the size of the index across the cluster
+   * @param quota the quota of the index
+   */
+  void onQuotaWarning(String indexName, long sizeInBytes, long quota);
+}
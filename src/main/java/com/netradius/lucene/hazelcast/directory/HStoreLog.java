@@ -0,0 +1,289 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of key and value records, holding one partition of a map persisted by
+ * {@link HMapStore}. Stores and deletes append a record and the position of the latest record of
+ * every key is indexed in memory, so reads cost a single positioned read. The file is rewritten
+ * with the live records only once replaced and deleted records take up more than half of it.
+ *
+ * <p>Each record is a CRC32 checksum, the key length, the value length, the key and the value.
+ * A value length of -1 marks a delete. A record cut short by a crash is dropped when the file is
+ * opened for writing. A file is written by a single member, see {@link HMapStore}. Records
+ * appended or files rewritten by the writer are picked up by a read only view of the file before
+ * it is used.
+ *
+ * @author Erik R. Jensen
+ */
+@Slf4j
+final class HStoreLog implements Closeable {
+
+  private static final int HEADER_SIZE = 12;
+  private static final int DELETED = -1;
+
+  // replaced records are only rewritten once there is enough of them to be worth it
+  private static final long MIN_COMPACT_BYTES = 16L * 1024L * 1024L;
+
+  private final Path path;
+  private final boolean writable;
+  private final Map<ByteBuffer, Location> index = new HashMap<>();
+  private FileChannel channel;
+  private Object fileKey;
+  private long end;
+  private long garbage;
+
+  /**
+   * Opens a log, reading the keys it holds.
+   *
+   * @param path the file
+   * @param writable true to create the file if needed and append to it
+   * @throws IOException if the file could not be opened or read
+   */
+  HStoreLog(Path path, boolean writable) throws IOException {
+    this.path = path;
+    this.writable = writable;
+    open();
+  }
+
+  private void open() throws IOException {
+    index.clear();
+    end = 0;
+    garbage = 0;
+    channel = writable
+        ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE)
+        : FileChannel.open(path, StandardOpenOption.READ);
+    fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    scan();
+    if (writable && channel.size() > end) {
+      log.warn("Dropping " + (channel.size() - end) + " bytes cut short at the end of " + path);
+      channel.truncate(end);
+    }
+  }
+
+  private void scan() throws IOException {
+    long size = channel.size();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while (end + HEADER_SIZE <= size) {
+      header.clear();
+      readFully(header, end);
+      header.flip();
+      header.getInt();
+      int keyLength = header.getInt();
+      int valueLength = header.getInt();
+      long next = end + HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+      if (keyLength <= 0 || valueLength < DELETED || next > size) {
+        // cut short, or zeros left by a crash
+        break;
+      }
+      ByteBuffer key = ByteBuffer.allocate(keyLength);
+      readFully(key, end + HEADER_SIZE);
+      key.flip();
+      apply(key, valueLength == DELETED ? null : new Location(end, valueLength), next - end);
+      end = next;
+    }
+  }
+
+  private void apply(ByteBuffer key, Location location, long recordSize) {
+    Location previous = location == null ? index.remove(key) : index.put(key, location);
+    if (previous != null) {
+      garbage += HEADER_SIZE + key.remaining() + previous.valueLength;
+    }
+    if (location == null) {
+      garbage += recordSize;
+    }
+  }
+
+  /**
+   * Picks up the changes made to the file by its writer.
+   */
+  private void refresh() throws IOException {
+    Object currentKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    if (fileKey != null && !fileKey.equals(currentKey)) {
+      // rewritten
+      channel.close();
+      open();
+    } else if (channel.size() > end) {
+      scan();
+    }
+  }
+
+  /**
+   * Returns the value of a key.
+   *
+   * @param key the key
+   * @return the value or null if the key is not stored
+   * @throws IOException if the value could not be read or is corrupt
+   */
+  synchronized byte[] get(ByteBuffer key) throws IOException {
+    refresh();
+    Location location = index.get(key);
+    if (location == null) {
+      return null;
+    }
+    int keyLength = key.remaining();
+    ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + keyLength + location.valueLength);
+    readFully(record, location.position);
+    record.flip();
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), 4, record.limit() - 4);
+    if (record.getInt() != (int) crc.getValue()) {
+      throw new IOException("Corrupt record at " + location.position + " of " + path);
+    }
+    byte[] value = new byte[location.valueLength];
+    System.arraycopy(record.array(), HEADER_SIZE + keyLength, value, 0, value.length);
+    return value;
+  }
+
+  /**
+   * Returns true if a key is stored, without reading its value.
+   *
+   * @param key the key
+   * @return true if the key is stored
+   * @throws IOException if the file could not be read
+   */
+  synchronized boolean contains(ByteBuffer key) throws IOException {
+    refresh();
+    return index.containsKey(key);
+  }
+
+  /**
+   * Returns the keys stored.
+   *
+   * @return the keys
+   * @throws IOException if the file could not be read
+   */
+  synchronized List<ByteBuffer> keys() throws IOException {
+    refresh();
+    List<ByteBuffer> keys = new ArrayList<>(index.size());
+    for (ByteBuffer key : index.keySet()) {
+      keys.add(key.duplicate());
+    }
+    return keys;
+  }
+
+  /**
+   * Appends records and waits for them to reach the disk.
+   *
+   * @param records the values by key, a null value deletes the key
+   * @throws IOException if the records could not be written
+   */
+  synchronized void append(Map<ByteBuffer, byte[]> records) throws IOException {
+    if (!writable) {
+      throw new IOException(path + " is opened read only");
+    }
+    refresh();
+    boolean appended = false;
+    for (Map.Entry<ByteBuffer, byte[]> entry : records.entrySet()) {
+      ByteBuffer key = entry.getKey().duplicate();
+      byte[] value = entry.getValue();
+      if (value == null && !index.containsKey(key)) {
+        continue;
+      }
+      int keyLength = key.remaining();
+      int valueLength = value != null ? value.length : DELETED;
+      ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + keyLength + Math.max(valueLength, 0));
+      record.position(4);
+      record.putInt(keyLength);
+      record.putInt(valueLength);
+      record.put(key.duplicate());
+      if (value != null) {
+        record.put(value);
+      }
+      CRC32 crc = new CRC32();
+      crc.update(record.array(), 4, record.capacity() - 4);
+      record.putInt(0, (int) crc.getValue());
+      record.flip();
+      long position = end;
+      writeFully(channel, record, position);
+      end += record.limit();
+      apply(key, value != null ? new Location(position, valueLength) : null, record.limit());
+      appended = true;
+    }
+    if (appended) {
+      channel.force(false);
+      compactIfNeeded();
+    }
+  }
+
+  private void compactIfNeeded() throws IOException {
+    if (garbage < MIN_COMPACT_BYTES || garbage < end / 2) {
+      return;
+    }
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      long position = 0;
+      for (Map.Entry<ByteBuffer, Location> entry : index.entrySet()) {
+        Location location = entry.getValue();
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + entry.getKey().remaining()
+            + location.valueLength);
+        readFully(record, location.position);
+        record.flip();
+        writeFully(out, record, position);
+        position += record.limit();
+      }
+      out.force(true);
+    }
+    long before = end;
+    Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    channel.close();
+    open();
+    if (log.isDebugEnabled()) {
+      log.debug("Compacted " + path + " from " + before + " to " + end + " bytes");
+    }
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException("read past EOF: " + path);
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    channel.close();
+  }
+
+  @Override
+  public String toString() {
+    return "HStoreLog(path=" + path + ")";
+  }
+
+  private static final class Location {
+
+    private final long position;
+    private final int valueLength;
+
+    private Location(long position, int valueLength) {
+      this.position = position;
+      this.valueLength = valueLength;
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.core.IExecutorService;
+import com.hazelcast.core.IMap;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Verifies the content of files against the checksums kept in their block tables. Every member
+ * verifies the blocks it owns in parallel and only the results are returned, so no content is
+ * transferred to the client, see {@link HVerifyTask}. Files with blocks that migrated while being
+ * verified are verified again by a single member.
+ *
+ * @author Erik R. Jensen
+ */
+public class HVerifier {
+
+  private final HazelcastDirectory directory;
+
+  HVerifier(HazelcastDirectory directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Verifies published files.
+   *
+   * @param names the files to verify
+   * @return by file name true if the file is intact, false if it is missing or content is
+   *     missing or corrupt
+   * @throws IOException if the verification could not be run
+   */
+  Map<String, Boolean> verify(Collection<String> names) throws IOException {
+    IMap<String, HFile> store = directory.store;
+    Map<String, HFile> files = store.getAll(new HashSet<>(names));
+    IExecutorService executor = directory.hazelcastInstance.getExecutorService(store.getName());
+    String blocks = directory.blocks.getName();
+    Map<String, Integer> verified = new HashMap<>();
+    try {
+      for (Future<Map<String, Integer>> future : executor.submitToAllMembers(
+          new HVerifyTask(store.getName(), blocks, files.keySet(), true)).values()) {
+        merge(verified, future.get());
+      }
+      List<String> incomplete = new ArrayList<>();
+      for (Map.Entry<String, HFile> file : files.entrySet()) {
+        int count = verified.getOrDefault(file.getKey(), 0);
+        if (count != HVerifyTask.CORRUPT && count != expectedBlocks(file.getValue())) {
+          incomplete.add(file.getKey());
+        }
+      }
+      if (!incomplete.isEmpty()) {
+        verified.putAll(executor.submit(new HVerifyTask(store.getName(), blocks, incomplete,
+            false)).get());
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while verifying " + store.getName());
+    } catch (ExecutionException ex) {
+      throw new IOException("Failed to verify " + store.getName(), ex.getCause());
+    }
+    Map<String, Boolean> results = new TreeMap<>();
+    for (String name : names) {
+      HFile file = files.get(name);
+      results.put(name, file != null
+          && verified.getOrDefault(name, 0) == expectedBlocks(file));
+    }
+    return results;
+  }
+
+  private static int expectedBlocks(HFile file) {
+    return file.isInline() ? 1 : file.numBlocks();
+  }
+
+  private static void merge(Map<String, Integer> verified, Map<String, Integer> member) {
+    for (Map.Entry<String, Integer> entry : member.entrySet()) {
+      verified.merge(entry.getKey(), entry.getValue(), (a, b) ->
+          a == HVerifyTask.CORRUPT || b == HVerifyTask.CORRUPT ? HVerifyTask.CORRUPT : a + b);
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceAware;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.Member;
+import com.hazelcast.core.PartitionService;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+import com.netradius.lucene.hazelcast.serializer.HazelcastDataSerializableFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.zip.CRC32;
+
+/**
+ * Task verifying the content of files on the cluster members against the checksums kept in
+ * their block tables, so verifying an index transfers no content to the client. When submitted to
+ * all members each member checks the blocks it owns and the inline files whose metadata it owns,
+ * or everything when local only is off. Returns per file the number of blocks found intact, or
+ * -1 if any block is missing or corrupt. Inline files count as a single block, blocks shared by
+ * a deduplicated file count once for every time they are referenced, and a deduplicated file
+ * without its block table is corrupt.
+ *
+ * @author Erik R. Jensen
+ */
+public class HVerifyTask
+    implements Callable<Map<String, Integer>>, HazelcastInstanceAware, IdentifiedDataSerializable {
+
+  public static final int CORRUPT = -1;
+
+  private String storeMap;
+  private String blocksMap;
+  private List<String> names;
+  private boolean localOnly;
+  private transient HazelcastInstance hazelcastInstance;
+
+  public HVerifyTask() {}
+
+  public HVerifyTask(String storeMap, String blocksMap, Collection<String> names,
+      boolean localOnly) {
+    this.storeMap = storeMap;
+    this.blocksMap = blocksMap;
+    this.names = new ArrayList<>(names);
+    this.localOnly = localOnly;
+  }
+
+  @Override
+  public void setHazelcastInstance(HazelcastInstance hazelcastInstance) {
+    this.hazelcastInstance = hazelcastInstance;
+  }
+
+  /**
+   * Verifies the files.
+   *
+   * @return the number of blocks verified by file name
+   */
+  @Override
+  public Map<String, Integer> call() {
+    IMap<String, HFile> store = hazelcastInstance.getMap(storeMap);
+    IMap<HBlockKey, byte[]> blocks = hazelcastInstance.getMap(blocksMap);
+    PartitionService partitionService = hazelcastInstance.getPartitionService();
+    Map<String, Integer> results = new HashMap<>();
+    Map<String, HFile> files = store.getAll(new HashSet<>(names));
+    Set<HBlockKey> tableKeys = new HashSet<>();
+    for (HFile file : files.values()) {
+      if (!file.isInline() && !file.isBlockTableLoaded()) {
+        tableKeys.add(file.blockTableKey());
+      }
+    }
+    Map<HBlockKey, byte[]> tables = tableKeys.isEmpty()
+        ? Collections.emptyMap() : blocks.getAll(tableKeys);
+    for (Map.Entry<String, HFile> entry : files.entrySet()) {
+      String name = entry.getKey();
+      HFile file = entry.getValue();
+      if (file.isInline()) {
+        if (!localOnly || isOwned(partitionService, name)) {
+          results.put(name, verifyInline(file) ? 1 : CORRUPT);
+        }
+        continue;
+      }
+      if (!file.isBlockTableLoaded()) {
+        try {
+          file.setBlockTable(tables.get(file.blockTableKey()));
+        } catch (IOException ex) {
+          results.put(name, CORRUPT);
+          continue;
+        }
+      }
+      List<Integer> indexes = new ArrayList<>();
+      Set<HBlockKey> keys = new HashSet<>();
+      for (int i = 0; i < file.numBlocks(); i++) {
+        HBlockKey key = file.blockKey(i);
+        if (!localOnly || isOwned(partitionService, key)) {
+          indexes.add(i);
+          keys.add(key);
+        }
+      }
+      if (indexes.isEmpty()) {
+        continue;
+      }
+      // the owned blocks are read without leaving the member
+      Map<HBlockKey, byte[]> found = blocks.getAll(keys);
+      int verified = indexes.size();
+      for (int index : indexes) {
+        byte[] block = found.get(file.blockKey(index));
+        if (block == null || file.hasBlockChecksums() && HFile.checksum(block,
+            file.isDeduplicated() ? HContentProcessor.contentLength(block) : block.length)
+            != file.getBlockChecksum(index)) {
+          verified = CORRUPT;
+          break;
+        }
+      }
+      results.put(name, verified);
+    }
+    return results;
+  }
+
+  private static boolean verifyInline(HFile file) {
+    if (file instanceof LegacyHFile) {
+      // written before checksums were kept
+      return true;
+    }
+    CRC32 crc = new CRC32();
+    if (file.numBuffers() > 0) {
+      crc.update(file.getBuffer(0), 0, (int) file.getLength());
+    }
+    return crc.getValue() == file.getChecksum();
+  }
+
+  private static boolean isOwned(PartitionService partitionService, Object key) {
+    // no owner while a partition is unassigned or migrating, the file is then incomplete and
+    // verified again by a single member
+    Member owner = partitionService.getPartition(key).getOwner();
+    return owner != null && owner.localMember();
+  }
+
+  @Override
+  public int getFactoryId() {
+    return HazelcastDataSerializableFactory.FACTORY_ID;
+  }
+
+  @Override
+  public int getId() {
+    return HazelcastDataSerializableFactory.HVERIFY_TASK_TYPE;
+  }
+
+  @Override
+  public void writeData(ObjectDataOutput objectDataOutput) throws IOException {
+    objectDataOutput.writeUTF(storeMap);
+    objectDataOutput.writeUTF(blocksMap);
+    objectDataOutput.writeInt(names.size());
+    for (String name : names) {
+      objectDataOutput.writeUTF(name);
+    }
+    objectDataOutput.writeBoolean(localOnly);
+  }
+
+  @Override
+  public void readData(ObjectDataInput objectDataInput) throws IOException {
+    storeMap = objectDataInput.readUTF();
+    blocksMap = objectDataInput.readUTF();
+    int count = objectDataInput.readInt();
+    names = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      names.add(objectDataInput.readUTF());
+    }
+    localOnly = objectDataInput.readBoolean();
+  }
+}
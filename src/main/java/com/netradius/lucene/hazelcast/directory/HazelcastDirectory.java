@@ -2,8 +2,19 @@ package com.netradius.lucene.hazelcast.directory;
 
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.IMap;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.IdGenerator;
+import com.hazelcast.core.Member;
+import com.hazelcast.core.Partition;
+import com.hazelcast.core.PartitionService;
+import com.hazelcast.spi.AbstractDistributedObject;
+import com.hazelcast.spi.NodeEngine;
+import com.hazelcast.spi.partition.IPartitionService;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.store.BaseDirectory;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
@@ -13,11 +24,43 @@ import org.apache.lucene.util.Accountables;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Hazelcast directory implementation.
+ * Hazelcast directory implementation. File metadata is kept in one map keyed by file name and
+ * the content of each file is split into blocks kept in a second map, so readers only fetch the
+ * blocks they touch and a file is spread over the cluster instead of a single partition. Listing
+ * files and reading their length only ever touch the metadata map.
+ *
+ * <p>Optional features are configured through {@link HazelcastDirectoryConfig} and implemented
+ * by collaborators: the block cache {@link HBlockCache}, the disk cache {@link HDiskCache}, the
+ * index size and quota {@link HQuota}, near-real-time buffering {@link HNrtBuffer}, deduplication
+ * {@link HDedup}, copies on the cluster {@link HFileCopier} and verification {@link HVerifier}.
+ * When the directory runs on a cluster member and local reads are enabled, blocks owned by that
+ * member are read from local memory instead of being cached a second time. With commit events
+ * enabled, writing a segments_N file publishes an {@link HCommitEvent}, see
+ * {@link #addCommitListener(HCommitListener)}. With {@link HFileStore} and {@link HBlockStore}
+ * configured as map stores on the members, the index survives a restart of the whole cluster.
  *
  * @author Dilip S Sisodia
  * @author Erik R. Jensen
@@ -25,15 +68,84 @@ import java.util.concurrent.atomic.AtomicLong;
 @Slf4j
 public class HazelcastDirectory extends BaseDirectory implements Accountable {
 
+  // blocks fetched per request when loading whole files, the request fans out to the partition
+  // owners
+  private static final int FETCH_BATCH_SIZE = 256;
+
   protected HazelcastInstance hazelcastInstance;
-  protected final AtomicLong sizeInBytes = new AtomicLong();
   protected IMap<String, HFile> store;
-
+  protected IMap<HBlockKey, byte[]> blocks;
+  protected IdGenerator fileIds;
+  protected ITopic<HCommitEvent> commits;
+  protected final HazelcastDirectoryConfig config;
+  protected final HBlockCache blockCache;
+  protected final HDiskCache diskCache;
+  protected final HDirectoryMetrics metrics;
+  protected final PartitionService partitionService;
+  // set if the local member also reads the blocks it holds backups of, see isLocal
+  protected final NodeEngine backupReader;
+  protected final HQuota quota;
+  protected final HNrtBuffer nrtBuffer;
+  protected final HDedup dedup;
+  protected final HFileCopier copier;
+  protected final HVerifier verifier;
+  protected final ConcurrentMap<String, HOutputStream> pendingOutputs = new ConcurrentHashMap<>();
+  protected final ConcurrentMap<String, HOutputStream> openOutputs = new ConcurrentHashMap<>();
+  private final Object publishLock = new Object();
+  private volatile Set<String> lastCommitFiles = Collections.emptySet();
   public HazelcastDirectory(HazelcastInstance hazelcastInstance, String prefix,
       String indexName, LockFactory lockFactory) {
+    this(hazelcastInstance, prefix, indexName, lockFactory, new HazelcastDirectoryConfig());
+  }
+
+  public HazelcastDirectory(HazelcastInstance hazelcastInstance, String prefix,
+      String indexName, LockFactory lockFactory, HazelcastDirectoryConfig config) {
     super(lockFactory);
     this.hazelcastInstance = hazelcastInstance;
+    this.config = config;
+    this.blockCache = new HBlockCache(config.getBlockCacheSize(), config.isOffHeapCache());
     this.store = hazelcastInstance.getMap(prefix != null ? prefix : "" + indexName);
+    this.blocks = hazelcastInstance.getMap(store.getName() + "-blocks");
+    this.fileIds = hazelcastInstance.getIdGenerator(store.getName());
+    this.commits = hazelcastInstance.getTopic(store.getName() + "-commits");
+    this.metrics = new HDirectoryMetrics(store.getName(), blockCache);
+    if (blockCache.isEnabled() && config.getMaxBlockSize() > blockCache.getMaxBlockSize()) {
+      log.warn("Blocks of " + store.getName() + " larger than " + blockCache.getMaxBlockSize()
+          + " bytes, a sixteenth of the block cache size, are not cached, the largest configured "
+          + "block size is " + config.getMaxBlockSize());
+    }
+    this.diskCache = newDiskCache();
+    metrics.diskCache = diskCache;
+    this.quota = new HQuota(hazelcastInstance, store.getName(), config, metrics);
+    this.nrtBuffer = new HNrtBuffer(config, metrics);
+    this.dedup = new HDedup(this);
+    this.copier = new HFileCopier(this);
+    this.verifier = new HVerifier(this);
+    if (metrics.indexBytes == 0 && !store.isEmpty()) {
+      // written before the size was counted, or loaded by a map store after a restart
+      recountSize();
+    }
+    // clients have no partitions of their own
+    this.partitionService = config.isLocalReads()
+        && hazelcastInstance.getLocalEndpoint() instanceof Member
+        ? hazelcastInstance.getPartitionService() : null;
+    this.backupReader = partitionService != null && blocks instanceof AbstractDistributedObject
+        && hazelcastInstance.getConfig().findMapConfig(blocks.getName()).isReadBackupData()
+        ? ((AbstractDistributedObject<?>) blocks).getNodeEngine() : null;
+  }
+
+  private HDiskCache newDiskCache() {
+    if (config.getDiskCachePath() == null) {
+      return null;
+    }
+    Path path = config.getDiskCachePath().resolve(store.getName());
+    try {
+      return new HDiskCache(path, config.getDiskCacheSize());
+    } catch (IOException ex) {
+      // reads still work, just without the local copies
+      log.error("Failed to open disk cache " + path + ": " + ex.getMessage());
+      return null;
+    }
   }
 
   @Override
@@ -41,7 +153,14 @@ public class HazelcastDirectory extends BaseDirectory implements Accountable {
     if (log.isTraceEnabled()) {
       log.trace("listAll()");
     }
-    return store.keySet().toArray(new String[store.size()]);
+    if (pendingOutputs.isEmpty() && openOutputs.isEmpty()) {
+      return store.keySet().toArray(new String[0]);
+    }
+    // files written by this directory are listed before they are synced
+    Set<String> names = new HashSet<>(store.keySet());
+    names.addAll(openOutputs.keySet());
+    names.addAll(pendingOutputs.keySet());
+    return names.toArray(new String[names.size()]);
   }
 
   @Override
@@ -50,12 +169,39 @@ public class HazelcastDirectory extends BaseDirectory implements Accountable {
       log.trace("deleteFile(" + name + ")");
     }
     ensureOpen();
+    long start = System.nanoTime();
+    HOutputStream pending;
+    synchronized (publishLock) {
+      pending = pendingOutputs.remove(name);
+      if (pending == null) {
+        pending = openOutputs.remove(name);
+      }
+      if (pending != null && pending.isBuffered()) {
+        // never stored in the cluster
+        nrtBuffer.discard(pending);
+        metrics.deleteLatency.recordSince(start);
+        return;
+      }
+    }
+    if (pending != null) {
+      pending.awaitWrites(0);
+    }
     HFile file = store.remove(name);
+    if (pending != null) {
+      // the published metadata does not know about the blocks written since
+      file = pending.file;
+    }
     if (file != null) {
-      sizeInBytes.addAndGet(-file.sizeInBytes);
+      quota.add(-file.getSizeInBytes());
+      blockCache.invalidate(file);
+      if (diskCache != null) {
+        diskCache.invalidate(file.getFileId());
+      }
+      deleteBlocks(file);
     } else {
       throw new FileNotFoundException(name);
     }
+    metrics.deleteLatency.recordSince(start);
   }
 
   @Override
@@ -64,14 +210,11 @@ public class HazelcastDirectory extends BaseDirectory implements Accountable {
       log.trace("fileLength(" + name + ")");
     }
     ensureOpen();
-    if (!store.containsKey(name)) {
-      throw new FileNotFoundException(name);
+    HOutputStream pending = pendingOutputs.get(name);
+    if (pending != null) {
+      return pending.file.getLength();
     }
-    HFile file = store.get(name);
-    if (file != null) {
-      return file.getLength();
-    }
-    throw new FileNotFoundException(name);
+    return getFile(name).getLength();
   }
 
 
@@ -80,7 +223,11 @@ public class HazelcastDirectory extends BaseDirectory implements Accountable {
     if (log.isTraceEnabled()) {
       log.trace("close()");
     }
+    publishPending(new ArrayList<>(pendingOutputs.keySet()));
     isOpen = false;
+    if (diskCache != null) {
+      diskCache.close();
+    }
   }
 
   @Override
@@ -89,9 +236,20 @@ public class HazelcastDirectory extends BaseDirectory implements Accountable {
       log.trace("createOutout(" + s + "," + ioContext.toString() + ")");
     }
     ensureOpen();
-    HFile file = new HFile(this);
-    store.put(s, file);
-    return new HOutputStream(s, file, store);
+    quota.check(s);
+    long start = System.nanoTime();
+    HFile file = new HFile(this, fileIds.newId(), config.getBlockSize(s),
+        config.getCompression(s));
+    file.setDeduplicated(config.isDedup());
+    HOutputStream output = new HOutputStream(s, file, this);
+    if (nrtBuffer.isBuffered(ioContext)) {
+      output.bufferedBlocks = new ArrayList<>();
+      openOutputs.put(s, output);
+    } else {
+      store.set(s, file);
+    }
+    metrics.createOutputLatency.recordSince(start);
+    return output;
   }
 
   @Override
@@ -99,6 +257,252 @@ public class HazelcastDirectory extends BaseDirectory implements Accountable {
     if (log.isTraceEnabled()) {
       log.trace("sync(" + names.toString() + ")");
     }
+    ensureOpen();
+    long start = System.nanoTime();
+    publishPending(names);
+    metrics.syncLatency.recordSince(start);
+  }
+
+  /**
+   * Registers a closed output whose file is published on the next sync.
+   *
+   * @param output the output
+   */
+  protected void addPendingOutput(HOutputStream output) {
+    pendingOutputs.put(output.name, output);
+  }
+
+  /**
+   * Publishes closed but unpublished files. Block writes still in flight are awaited, then the
+   * last blocks of all files and all blocks of buffered files are stored with one putAll,
+   * followed by the metadata of all files with another, each of which Hazelcast groups by
+   * partition. The block tables of the files go with the last blocks. The blocks of
+   * deduplicated files are referenced with a request per block instead, all issued before any
+   * is awaited.
+   *
+   * @param names the names of the files to publish, names of published files are ignored
+   * @throws IOException if a block write failed
+   */
+  protected void publishPending(Collection<String> names) throws IOException {
+    if (pendingOutputs.isEmpty()) {
+      return;
+    }
+    List<String> commitPoints = new ArrayList<>();
+    synchronized (publishLock) {
+      List<HOutputStream> outputs = new ArrayList<>();
+      for (String name : names) {
+        HOutputStream output = pendingOutputs.get(name);
+        if (output != null) {
+          outputs.add(output);
+        }
+      }
+      if (outputs.isEmpty()) {
+        return;
+      }
+      Map<HBlockKey, byte[]> lastBlocks = new HashMap<>();
+      Map<String, HFile> files = new HashMap<>();
+      for (HOutputStream output : outputs) {
+        if (output.isBuffered()) {
+          output.unbuffer(lastBlocks);
+        }
+        if (output.lastBlock != null && output.file.isDeduplicated()) {
+          output.writeLastBlock();
+        } else if (output.lastBlock != null) {
+          lastBlocks.put(new HBlockKey(output.file.getFileId(), output.currentBufferIndex),
+              output.lastBlock);
+        }
+        files.put(output.name, output.file);
+      }
+      for (HOutputStream output : outputs) {
+        output.awaitWrites(0);
+      }
+      if (!lastBlocks.isEmpty()) {
+        for (byte[] block : lastBlocks.values()) {
+          metrics.blockWrites.increment();
+          metrics.blockWriteBytes.add(block.length);
+        }
+      }
+      for (HFile file : files.values()) {
+        if (!file.isInline()) {
+          lastBlocks.put(file.blockTableKey(), file.encodeBlockTable());
+        }
+      }
+      if (!lastBlocks.isEmpty()) {
+        blocks.putAll(lastBlocks);
+      }
+      store.putAll(files);
+      for (HOutputStream output : outputs) {
+        output.lastBlock = null;
+        output.dirty = false;
+        pendingOutputs.remove(output.name, output);
+        if (isCommitPoint(output.name)) {
+          commitPoints.add(output.name);
+        }
+      }
+    }
+    for (String commitPoint : commitPoints) {
+      publishCommit(commitPoint);
+    }
+  }
+
+  /**
+   * Returns true if commit events are enabled and a file is a commit point.
+   *
+   * @param name the file name
+   * @return true for a segments_N file
+   */
+  protected boolean isCommitPoint(String name) {
+    return config.isCommitEvents() && name.startsWith(IndexFileNames.SEGMENTS + "_");
+  }
+
+  /**
+   * Publishes the event of a commit point. Failing to read the commit point is logged rather
+   * than thrown, as the commit itself succeeded.
+   *
+   * @param segmentsFileName the name of the commit point
+   */
+  protected void publishCommit(String segmentsFileName) {
+    try {
+      SegmentInfos infos = SegmentInfos.readCommit(this, segmentsFileName);
+      Set<String> files = new HashSet<>(infos.files(true));
+      Set<String> previous = lastCommitFiles;
+      Set<String> added = new HashSet<>(files);
+      added.removeAll(previous);
+      Map<String, Long> newFiles = new TreeMap<>();
+      for (Map.Entry<String, HFile> file : store.getAll(added).entrySet()) {
+        newFiles.put(file.getKey(), file.getValue().getLength());
+      }
+      lastCommitFiles = files;
+      commits.publish(new HCommitEvent(store.getName(), segmentsFileName, infos.getGeneration(),
+          newFiles));
+    } catch (IOException ex) {
+      log.warn("Failed to publish commit " + segmentsFileName + " of " + store.getName() + ": "
+          + ex.getMessage());
+    }
+  }
+
+  /**
+   * Loads the files of the latest commit into the block cache. Blocks are fetched in batches,
+   * each sent to the members owning its blocks in parallel, and loading stops once the cache is
+   * full. Blocks already cached or owned by the local member are skipped.
+   *
+   * @param fileTypes the file types to load as returned by
+   *     {@link HazelcastDirectoryConfig#fileType(String)}, or null for all files
+   * @return the number of bytes loaded
+   * @throws IOException if the commit could not be read or a block could not be fetched
+   */
+  public long warmUp(Collection<String> fileTypes) throws IOException {
+    ensureOpen();
+    String segmentsFileName = SegmentInfos.getLastCommitSegmentsFileName(listAll());
+    if (segmentsFileName == null || !blockCache.isEnabled()) {
+      return 0;
+    }
+    long start = System.nanoTime();
+    SegmentInfos infos = SegmentInfos.readCommit(this, segmentsFileName);
+    Set<String> names = new TreeSet<>();
+    for (String name : infos.files(true)) {
+      if (fileTypes == null || fileTypes.contains(HazelcastDirectoryConfig.fileType(name))) {
+        names.add(name);
+      }
+    }
+    Map<HBlockKey, Map.Entry<HFileSnapshot, Integer>> batch = new LinkedHashMap<>();
+    long loaded = 0;
+    Map<String, HFile> files = store.getAll(names);
+    loadBlockTables(files.values());
+    for (Map.Entry<String, HFile> entry : files.entrySet()) {
+      HFileSnapshot file = entry.getValue().snapshot(entry.getKey());
+      for (int i = 0; !file.isInline() && i < file.numBlocks(); i++) {
+        HBlockKey key = file.blockKey(i);
+        if (!blockCache.contains(key) && !isLocal(key)) {
+          batch.put(key, new AbstractMap.SimpleImmutableEntry<>(file, i));
+        }
+        if (batch.size() == FETCH_BATCH_SIZE) {
+          loaded += warmUpBlocks(batch);
+        }
+      }
+      if (loaded >= blockCache.getMaxBytes()) {
+        break;
+      }
+    }
+    loaded += warmUpBlocks(batch);
+    log.info("Warmed up " + names.size() + " files of " + segmentsFileName + " of "
+        + store.getName() + ", loaded " + loaded + " bytes in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    return loaded;
+  }
+
+  private long warmUpBlocks(Map<HBlockKey, Map.Entry<HFileSnapshot, Integer>> batch)
+      throws IOException {
+    if (batch.isEmpty()) {
+      return 0;
+    }
+    long start = System.nanoTime();
+    long loaded = 0;
+    Map<HBlockKey, byte[]> fetched = blocks.getAll(batch.keySet());
+    metrics.blockFetchLatency.recordSince(start);
+    for (Map.Entry<HBlockKey, byte[]> entry : fetched.entrySet()) {
+      HBlockKey key = entry.getKey();
+      // the file and index of a block shared by several files are those of one of them
+      Map.Entry<HFileSnapshot, Integer> source = batch.get(key);
+      metrics.blockFetchBytes.add(entry.getValue().length);
+      ByteBuffer block = decompressBlock(source.getKey(), source.getValue(), entry.getValue());
+      blockCache.put(key, block);
+      loaded += block.remaining();
+    }
+    batch.clear();
+    return loaded;
+  }
+
+  /**
+   * Verifies the content of files on the members holding it, see {@link HVerifier}.
+   *
+   * @param names the files to verify, or null for all files
+   * @return by file name true if the file is intact, false if it is missing or content is
+   *     missing or corrupt
+   * @throws IOException if the verification could not be run
+   */
+  public Map<String, Boolean> verify(Collection<String> names) throws IOException {
+    ensureOpen();
+    if (names == null) {
+      publishPending(new ArrayList<>(pendingOutputs.keySet()));
+      names = store.keySet();
+    } else {
+      publishPending(names);
+    }
+    return verifier.verify(names);
+  }
+
+  /**
+   * Reports how much deduplication saves in this index, see {@link HDedup}.
+   *
+   * @return the report
+   * @throws IOException if a pending file or a block table could not be read
+   */
+  public HDedupReport dedupReport() throws IOException {
+    ensureOpen();
+    publishPending(new ArrayList<>(pendingOutputs.keySet()));
+    return dedup.report();
+  }
+
+  /**
+   * Adds a listener receiving the commit events of every directory of this index, including
+   * this one.
+   *
+   * @param listener the listener
+   * @return the id of the registration
+   */
+  public String addCommitListener(final HCommitListener listener) {
+    return commits.addMessageListener(message -> listener.onCommit(message.getMessageObject()));
+  }
+
+  /**
+   * Removes a commit listener.
+   *
+   * @param registrationId the id returned by {@link #addCommitListener(HCommitListener)}
+   * @return true if the listener was removed
+   */
+  public boolean removeCommitListener(String registrationId) {
+    return commits.removeMessageListener(registrationId);
   }
 
   @Override
@@ -107,12 +511,94 @@ public class HazelcastDirectory extends BaseDirectory implements Accountable {
       log.trace("renameFile(" + source + "," + dest + ")");
     }
     ensureOpen();
-    HFile file = this.store.get(source);
-    if (file == null) {
-      throw new FileNotFoundException(source);
-    } else {
-      this.store.put(dest, file);
-      this.store.remove(source);
+    long start = System.nanoTime();
+    publishPending(Collections.singleton(source));
+    // blocks are keyed by file id, so only the metadata moves
+    HFile file = getFile(source);
+    replaceFile(dest, file);
+    this.store.delete(source);
+    metrics.renameLatency.recordSince(start);
+    if (isCommitPoint(dest)) {
+      publishCommit(dest);
+    }
+  }
+
+  /**
+   * Copies a file. When the source is a HazelcastDirectory on the same cluster the content blocks
+   * are copied on the cluster members, see {@link HFileCopier}, otherwise they are read and
+   * written through this client.
+   */
+  @Override
+  public void copyFrom(Directory from, String src, String dest, IOContext context)
+      throws IOException {
+    if (!(from instanceof HazelcastDirectory)
+        || ((HazelcastDirectory) from).hazelcastInstance != hazelcastInstance) {
+      super.copyFrom(from, src, dest, context);
+      return;
+    }
+    if (log.isTraceEnabled()) {
+      log.trace("copyFrom(" + src + "," + dest + ")");
+    }
+    ensureOpen();
+    // the copy on the cluster bypasses createOutput and its check
+    quota.check(dest);
+    if (!copier.copy((HazelcastDirectory) from, src, dest)) {
+      super.copyFrom(from, src, dest, context);
+    }
+  }
+
+  /**
+   * Loads the block checksums and content hashes of a published file if they are not loaded
+   * yet.
+   *
+   * @param file the file
+   * @throws IOException if the block table of a deduplicated file is missing or corrupt
+   */
+  protected void loadBlockTable(HFile file) throws IOException {
+    if (!file.isBlockTableLoaded()) {
+      file.setBlockTable(blocks.get(file.blockTableKey()));
+    }
+  }
+
+  /**
+   * Loads the block tables of published files not loaded yet with a single getAll.
+   *
+   * @param files the files
+   * @throws IOException if the block table of a deduplicated file is missing or corrupt
+   */
+  protected void loadBlockTables(Collection<HFile> files) throws IOException {
+    Map<HBlockKey, HFile> unloaded = new HashMap<>();
+    for (HFile file : files) {
+      if (!file.isInline() && !file.isBlockTableLoaded()) {
+        unloaded.put(file.blockTableKey(), file);
+      }
+    }
+    if (unloaded.isEmpty()) {
+      return;
+    }
+    Map<HBlockKey, byte[]> tables = blocks.getAll(unloaded.keySet());
+    for (Map.Entry<HBlockKey, HFile> entry : unloaded.entrySet()) {
+      entry.getValue().setBlockTable(tables.get(entry.getKey()));
+    }
+  }
+
+  /**
+   * Stores the metadata of a file under a name, removing the content of a different file
+   * previously stored under that name.
+   *
+   * @param name the file name
+   * @param file the file
+   * @throws IOException if the content of the replaced file could not be removed
+   */
+  protected void replaceFile(String name, HFile file) throws IOException {
+    HFile previous = store.put(name, file);
+    if (previous != null && previous.getFileId() != file.getFileId()) {
+      quota.add(-previous.getSizeInBytes());
+      blockCache.invalidate(previous);
+      if (diskCache != null) {
+        diskCache.invalidate(previous.getFileId());
+      }
+      deleteBlocks(previous);
     }
   }
 
@@ -122,10 +608,324 @@ public class HazelcastDirectory extends BaseDirectory implements Accountable {
       log.trace("openInput(" + s + "," + ioContext.toString() + ")");
     }
     ensureOpen();
-    if (!store.containsKey(s)) {
-      throw new FileNotFoundException(s);
+    long start = System.nanoTime();
+    HOutputStream pending = pendingOutputs.get(s);
+    if (pending != null) {
+      synchronized (publishLock) {
+        if (pending.isBuffered()) {
+          // read from memory until the file is synced
+          HInputStream input = new HInputStream(this, pending.bufferedSnapshot(), s, ioContext);
+          metrics.openInputLatency.recordSince(start);
+          return input;
+        }
+      }
+    }
+    publishPending(Collections.singleton(s));
+    HFile published = getFile(s);
+    if (published.isDeduplicated()) {
+      // the content keys of the blocks are in the block table
+      loadBlockTable(published);
+    }
+    HFileSnapshot file = published.snapshot(s);
+    // files written before checksums were kept cannot be validated
+    if (diskCache != null && !file.isInline() && file.numBlocks() > 1 && file.getChecksum() != 0) {
+      IndexInput cached = diskCache.openInput(file, ioContext);
+      if (cached != null) {
+        metrics.diskCacheHits.increment();
+        metrics.openInputLatency.recordSince(start);
+        return cached;
+      }
+      diskCache.load(file, out -> writeContent(file, out));
+    }
+    HInputStream input = new HInputStream(this, file, s, ioContext);
+    metrics.openInputLatency.recordSince(start);
+    return input;
+  }
+
+  /**
+   * Writes the content of a file to a stream, fetching its blocks in batches without caching
+   * them.
+   *
+   * @param file the file
+   * @param out the stream
+   * @throws IOException if a block could not be fetched or written
+   */
+  protected void writeContent(HFileSnapshot file, OutputStream out) throws IOException {
+    int numBlocks = file.numBlocks();
+    for (int first = 0; first < numBlocks; first += FETCH_BATCH_SIZE) {
+      int last = Math.min(numBlocks, first + FETCH_BATCH_SIZE);
+      Set<HBlockKey> keys = new HashSet<>();
+      for (int i = first; i < last; i++) {
+        keys.add(file.blockKey(i));
+      }
+      long start = System.nanoTime();
+      Map<HBlockKey, byte[]> fetched = blocks.getAll(keys);
+      metrics.blockFetchLatency.recordSince(start);
+      for (int i = first; i < last; i++) {
+        byte[] block = fetched.get(file.blockKey(i));
+        if (block == null) {
+          throw new IOException("Missing block " + i + " of file " + file.getFileId());
+        }
+        metrics.blockFetchBytes.add(block.length);
+        ByteBuffer content = decompressBlock(file, i, block);
+        out.write(content.array(), content.arrayOffset(), content.remaining());
+      }
+    }
+  }
+
+  /**
+   * Returns the metadata of a file in a single round trip.
+   *
+   * @param name the file name
+   * @return the file metadata
+   * @throws FileNotFoundException if the file does not exist
+   */
+  public HFile getFile(String name) throws IOException {
+    publishPending(Collections.singleton(name));
+    HFile file = store.get(name);
+    if (file == null) {
+      throw new FileNotFoundException(name);
+    }
+    return file;
+  }
+
+  /**
+   * Returns a single content block of a file, from the local block cache if possible or else
+   * from the cluster.
+   *
+   * @param file the file to read from
+   * @param index the index of the block
+   * @return the block
+   * @throws IOException if the block does not exist
+   */
+  protected ByteBuffer readBlock(HFileSnapshot file, int index) throws IOException {
+    HBlockKey key = file.blockKey(index);
+    boolean local = isLocal(key);
+    ByteBuffer cached = local ? null : blockCache.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    long start = System.nanoTime();
+    byte[] block = blocks.get(key);
+    if (block == null) {
+      throw new IOException("Missing block " + index + " of file " + file.getFileId());
+    }
+    metrics.blockFetchLatency.recordSince(start);
+    metrics.blockFetchBytes.add(block.length);
+    ByteBuffer content = decompressBlock(file, index, block);
+    if (local) {
+      metrics.localReads.increment();
+      return content;
+    }
+    return blockCache.put(key, content);
+  }
+
+  /**
+   * Starts fetching a single content block of a file from the cluster. The block is added to
+   * the local block cache once it is awaited with {@link #awaitBlock(HFileSnapshot, int, Future)}.
+   *
+   * @param file the file to read from
+   * @param index the index of the block
+   * @return a future for the block or null if the block is already cached or owned by the local
+   *     member
+   */
+  protected Future<byte[]> readBlockAsync(HFileSnapshot file, int index) {
+    HBlockKey key = file.blockKey(index);
+    if (blockCache.contains(key) || isLocal(key)) {
+      return null;
+    }
+    metrics.readAheadFetches.increment();
+    return metrics.track(blocks.getAsync(key));
+  }
+
+  /**
+   * Waits for a block fetched by {@link #readBlockAsync(HFileSnapshot, int)}.
+   *
+   * @param file the file to read from
+   * @param index the index of the block
+   * @param future the pending fetch
+   * @return the block
+   * @throws IOException if the block does not exist or could not be fetched
+   */
+  protected ByteBuffer awaitBlock(HFileSnapshot file, int index,
+      Future<byte[]> future) throws IOException {
+    byte[] block;
+    try {
+      block = future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading block " + index + " of file "
+          + file.getFileId());
+    } catch (ExecutionException ex) {
+      throw new IOException("Failed to read block " + index + " of file " + file.getFileId(),
+          ex.getCause());
+    }
+    if (block == null) {
+      throw new IOException("Missing block " + index + " of file " + file.getFileId());
     }
-    return new HInputStream(store.get(s), s);
+    metrics.blockFetchBytes.add(block.length);
+    ByteBuffer content = decompressBlock(file, index, block);
+    metrics.readAheadHits.increment();
+    return blockCache.put(file.blockKey(index), content);
+  }
+
+  /**
+   * Compresses a content block of a file before it is stored.
+   *
+   * @param file the file
+   * @param block the whole block, which is returned as is if the file is not compressed
+   * @return the block to store
+   * @throws IOException if the block could not be compressed
+   */
+  protected byte[] compressBlock(HFile file, byte[] block) throws IOException {
+    HCompression compression = file.getCompression();
+    if (compression == HCompression.NONE) {
+      return block;
+    }
+    long start = System.nanoTime();
+    byte[] compressed = compression.compress(block);
+    metrics.compressNanos.add(System.nanoTime() - start);
+    metrics.uncompressedBytes.add(block.length);
+    metrics.compressedBytes.add(compressed.length);
+    return compressed;
+  }
+
+  /**
+   * Decompresses a content block of a file after it is fetched.
+   *
+   * @param file the file
+   * @param index the index of the block
+   * @param block the stored block, followed by its references if the file is deduplicated
+   * @return the block, a slice of the stored block if it is not compressed
+   * @throws IOException if the block is corrupt
+   */
+  protected ByteBuffer decompressBlock(HFileSnapshot file, int index, byte[] block)
+      throws IOException {
+    HCompression compression = file.getCompression();
+    if (compression == HCompression.NONE) {
+      // the references are left out without copying the block
+      return file.isDeduplicated()
+          ? ByteBuffer.wrap(block, 0, HContentProcessor.contentLength(block)).slice()
+          : ByteBuffer.wrap(block);
+    }
+    long start = System.nanoTime();
+    try {
+      return ByteBuffer.wrap(compression.decompress(block, file.blockLength(index)));
+    } finally {
+      metrics.decompressNanos.add(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Returns true if local reads are enabled and a block is owned by the member running this
+   * directory, or backed up by it if the blocks map reads backup data.
+   *
+   * @param key the block key
+   * @return true if the block is in local memory
+   */
+  protected boolean isLocal(HBlockKey key) {
+    if (partitionService == null) {
+      return false;
+    }
+    if (backupReader != null) {
+      IPartitionService partitions = backupReader.getPartitionService();
+      return partitions.getPartition(partitions.getPartitionId(key))
+          .isOwnerOrBackup(backupReader.getThisAddress());
+    }
+    Partition partition = partitionService.getPartition(key);
+    Member owner = partition.getOwner();
+    return owner != null && owner.localMember();
+  }
+
+  /**
+   * Stores a single content block of a file in the cluster asynchronously. The block is
+   * serialized before this method returns.
+   *
+   * <p>A block of a deduplicated file is referenced by its content hash, see
+   * {@link HDedup#write(HFile, int, byte[])}.
+   *
+   * @param file the file to write to
+   * @param index the index of the block
+   * @param block the block content
+   * @return a future completing once the block is stored
+   */
+  protected Future<Void> writeBlockAsync(HFile file, int index, byte[] block) {
+    if (!file.isDeduplicated()) {
+      metrics.blockWrites.increment();
+      metrics.blockWriteBytes.add(block.length);
+      return metrics.track(blocks.setAsync(new HBlockKey(file.getFileId(), index), block));
+    }
+    return dedup.write(file, index, block);
+  }
+
+  /**
+   * Removes all content blocks of a file and its block table from the cluster, or releases the
+   * blocks referenced by a deduplicated file.
+   *
+   * @param file the file whose blocks are removed
+   * @throws IOException if the removal is interrupted or fails
+   */
+  protected void deleteBlocks(HFile file) throws IOException {
+    if (file.isInline()) {
+      return;
+    }
+    List<Future<?>> futures = new ArrayList<>();
+    if (file.isDeduplicated()) {
+      loadBlockTable(file);
+      // hashes are known for the blocks written so far, also if the file was never published
+      for (int i = 0; i < file.numBlockHashes(); i++) {
+        futures.add(dedup.release(file.blockKey(i), file.getFileId(), i));
+      }
+    } else {
+      for (int i = 0; i < file.numBlocks(); i++) {
+        futures.add(blocks.removeAsync(new HBlockKey(file.getFileId(), i)));
+      }
+    }
+    futures.add(blocks.removeAsync(file.blockTableKey()));
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while deleting blocks of file "
+          + file.getFileId());
+    } catch (ExecutionException ex) {
+      throw new IOException("Failed to delete blocks of file " + file.getFileId(), ex.getCause());
+    }
+  }
+
+  /**
+   * Returns the number of bytes the files of the index take up across the cluster.
+   */
+  public long sizeInBytes() {
+    return quota.sizeInBytes();
+  }
+
+  /**
+   * Recounts the size of the index from the metadata of its files, for indexes written before
+   * the size was counted or loaded by a map store after a restart of the cluster.
+   *
+   * @return the size of the index
+   */
+  public long recountSize() {
+    return quota.recount(store, fileIds);
+  }
+
+  public void addQuotaListener(HQuotaListener listener) {
+    quota.addListener(listener);
+  }
+
+  public void removeQuotaListener(HQuotaListener listener) {
+    quota.removeListener(listener);
+  }
+
+  public HDirectoryMetrics getMetrics() {
+    return metrics;
+  }
+
+  public HBlockCache getBlockCache() {
+    return blockCache;
   }
 
   @Override
@@ -134,7 +934,16 @@ public class HazelcastDirectory extends BaseDirectory implements Accountable {
       log.trace("ramBytesUsed()");
     }
     ensureOpen();
-    return sizeInBytes.get();
+    // file content lives in the cluster, only the cached blocks take up local memory
+    return blockCache.ramBytesUsed();
+  }
+
+  /**
+   * Returns the number of bytes of direct memory used by this directory, which is not included
+   * in {@link #ramBytesUsed()}.
+   */
+  public long offHeapBytesUsed() {
+    return blockCache.getOffHeapBytes();
   }
 
   @Override
@@ -142,6 +951,9 @@ public class HazelcastDirectory extends BaseDirectory implements Accountable {
     if (log.isTraceEnabled()) {
       log.trace("getChildResources()");
     }
-    return Accountables.namedAccountables("file", this.store);
+    List<Accountable> resources = new ArrayList<>(
+        Accountables.namedAccountables("file", this.store));
+    resources.addAll(metrics.getChildResources(config.getReadAheadBlocks()));
+    return Collections.unmodifiableList(resources);
   }
 }
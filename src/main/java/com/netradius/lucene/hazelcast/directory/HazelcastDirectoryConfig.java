@@ -0,0 +1,363 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import org.apache.lucene.index.IndexFileNames;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tuning options for a HazelcastDirectory.
+ *
+ * @author Erik R. Jensen
+ */
+public class HazelcastDirectoryConfig {
+
+  public static final long DEFAULT_BLOCK_CACHE_SIZE = 16L * 1024L * 1024L;
+
+  public static final int DEFAULT_BLOCK_SIZE = 16 * 1024;
+
+  public static final int DEFAULT_INLINE_THRESHOLD = 1024;
+
+  public static final int DEFAULT_MAX_PENDING_WRITES = 8;
+
+  public static final int DEFAULT_READ_AHEAD_BLOCKS = 4;
+
+  public static final double DEFAULT_QUOTA_SOFT_LIMIT = 0.9;
+
+  public static final long DEFAULT_DISK_CACHE_SIZE = 1024L * 1024L * 1024L;
+
+  public static final long DEFAULT_NRT_MAX_BUFFERED = 64L * 1024L * 1024L;
+
+  /**
+   * File type of segments_N and pending_segments_N files, which have no extension.
+   */
+  public static final String SEGMENTS_TYPE = IndexFileNames.SEGMENTS;
+
+  protected long blockCacheSize = DEFAULT_BLOCK_CACHE_SIZE;
+  protected boolean offHeapCache;
+  protected int blockSize = DEFAULT_BLOCK_SIZE;
+  protected int inlineThreshold = DEFAULT_INLINE_THRESHOLD;
+  protected int maxPendingWrites = DEFAULT_MAX_PENDING_WRITES;
+  protected int readAheadBlocks = DEFAULT_READ_AHEAD_BLOCKS;
+  protected boolean localReads;
+  protected boolean commitEvents;
+  protected long quota;
+  protected double quotaSoftLimit = DEFAULT_QUOTA_SOFT_LIMIT;
+  protected Path diskCachePath;
+  protected long diskCacheSize = DEFAULT_DISK_CACHE_SIZE;
+  protected long nrtMaxFileSize;
+  protected long nrtMaxBuffered = DEFAULT_NRT_MAX_BUFFERED;
+  protected boolean dedup;
+  protected final Map<String, Integer> blockSizes = new HashMap<>();
+  protected final Map<String, HCompression> compressions = new HashMap<>();
+
+  public HazelcastDirectoryConfig() {
+    // small per segment and commit files
+    blockSizes.put(SEGMENTS_TYPE, 1024);
+    blockSizes.put("si", 1024);
+    blockSizes.put("fnm", 1024);
+    blockSizes.put("liv", 1024);
+    // large stored fields, postings and compound files
+    blockSizes.put("fdt", 64 * 1024);
+    blockSizes.put("doc", 64 * 1024);
+    blockSizes.put("pos", 64 * 1024);
+    blockSizes.put("cfs", 64 * 1024);
+  }
+
+  /**
+   * Returns the type of a file used to look up per type settings. This is the file extension,
+   * {@link #SEGMENTS_TYPE} for commit files or an empty string if the file has no extension.
+   *
+   * @param name the file name
+   * @return the file type
+   */
+  public static String fileType(String name) {
+    if (name.startsWith(IndexFileNames.SEGMENTS)
+        || name.startsWith(IndexFileNames.PENDING_SEGMENTS)) {
+      return SEGMENTS_TYPE;
+    }
+    String extension = IndexFileNames.getExtension(name);
+    return extension != null ? extension : "";
+  }
+
+  /**
+   * Returns the maximum number of bytes of file content cached locally, 0 disables the cache.
+   */
+  public long getBlockCacheSize() {
+    return blockCacheSize;
+  }
+
+  public void setBlockCacheSize(long blockCacheSize) {
+    if (blockCacheSize < 0) {
+      throw new IllegalArgumentException("blockCacheSize must not be negative: " + blockCacheSize);
+    }
+    this.blockCacheSize = blockCacheSize;
+  }
+
+  /**
+   * Returns true if the block cache keeps blocks in direct memory outside the heap. The cache
+   * allocates up to its size in direct memory, plus less than 16 KB of rounding, which
+   * -XX:MaxDirectMemorySize must leave room for.
+   */
+  public boolean isOffHeapCache() {
+    return offHeapCache;
+  }
+
+  public void setOffHeapCache(boolean offHeapCache) {
+    this.offHeapCache = offHeapCache;
+  }
+
+  /**
+   * Returns the block size used for file types without a specific block size.
+   */
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  public void setBlockSize(int blockSize) {
+    checkBlockSize(blockSize);
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * Returns the block size used for a new file.
+   *
+   * @param name the file name
+   * @return the block size in bytes
+   */
+  public int getBlockSize(String name) {
+    Integer size = blockSizes.get(fileType(name));
+    return size != null ? size : blockSize;
+  }
+
+  /**
+   * Returns the largest block size of any file type.
+   */
+  public int getMaxBlockSize() {
+    int max = blockSize;
+    for (int size : blockSizes.values()) {
+      max = Math.max(max, size);
+    }
+    return max;
+  }
+
+  /**
+   * Sets the block size of a file type.
+   *
+   * @param fileType the file extension or {@link #SEGMENTS_TYPE}
+   * @param blockSize the block size in bytes
+   */
+  public void setBlockSize(String fileType, int blockSize) {
+    checkBlockSize(blockSize);
+    blockSizes.put(fileType, blockSize);
+  }
+
+  /**
+   * Returns the compression of the content blocks of a new file, by default blocks are not
+   * compressed.
+   *
+   * @param name the file name
+   * @return the compression
+   */
+  public HCompression getCompression(String name) {
+    HCompression compression = compressions.get(fileType(name));
+    return compression != null ? compression : HCompression.NONE;
+  }
+
+  /**
+   * Sets the compression of the content blocks of a file type.
+   *
+   * @param fileType the file extension or {@link #SEGMENTS_TYPE}
+   * @param compression the compression
+   */
+  public void setCompression(String fileType, HCompression compression) {
+    if (compression == null) {
+      throw new IllegalArgumentException("compression must not be null");
+    }
+    compressions.put(fileType, compression);
+  }
+
+  /**
+   * Returns the maximum length of a file stored along with its metadata instead of in separate
+   * blocks, 0 disables inlining.
+   */
+  public int getInlineThreshold() {
+    return inlineThreshold;
+  }
+
+  public void setInlineThreshold(int inlineThreshold) {
+    if (inlineThreshold < 0) {
+      throw new IllegalArgumentException("inlineThreshold must not be negative: "
+          + inlineThreshold);
+    }
+    this.inlineThreshold = inlineThreshold;
+  }
+
+  /**
+   * Returns the maximum number of block writes an output keeps in flight before waiting.
+   */
+  public int getMaxPendingWrites() {
+    return maxPendingWrites;
+  }
+
+  public void setMaxPendingWrites(int maxPendingWrites) {
+    if (maxPendingWrites <= 0) {
+      throw new IllegalArgumentException("maxPendingWrites must be positive: "
+          + maxPendingWrites);
+    }
+    this.maxPendingWrites = maxPendingWrites;
+  }
+
+  /**
+   * Returns the number of blocks fetched ahead of sequential readers, 0 disables read-ahead.
+   */
+  public int getReadAheadBlocks() {
+    return readAheadBlocks;
+  }
+
+  public void setReadAheadBlocks(int readAheadBlocks) {
+    if (readAheadBlocks < 0) {
+      throw new IllegalArgumentException("readAheadBlocks must not be negative: "
+          + readAheadBlocks);
+    }
+    this.readAheadBlocks = readAheadBlocks;
+  }
+
+  /**
+   * Returns true if blocks owned by the local member are read straight from the map, bypassing
+   * the block cache and read-ahead. Blocks the member holds backups of are read the same way if
+   * the blocks map is configured to read backup data. Only has an effect when the directory runs
+   * on a member.
+   */
+  public boolean isLocalReads() {
+    return localReads;
+  }
+
+  public void setLocalReads(boolean localReads) {
+    this.localReads = localReads;
+  }
+
+  /**
+   * Returns true if the directory publishes an {@link HCommitEvent} when a commit point is
+   * written. Publishing reads the commit point to list its files.
+   */
+  public boolean isCommitEvents() {
+    return commitEvents;
+  }
+
+  public void setCommitEvents(boolean commitEvents) {
+    this.commitEvents = commitEvents;
+  }
+
+  /**
+   * Returns the size up to which new files are kept in local memory until they are synced,
+   * 0 to store every file in the cluster as it is written. Files of flushes or merges estimated
+   * to be larger are stored right away, as are files growing past this size. Buffered files
+   * deleted before they are synced, such as those of near-real-time segments merged away
+   * shortly after, never reach the cluster.
+   */
+  public long getNrtMaxFileSize() {
+    return nrtMaxFileSize;
+  }
+
+  public void setNrtMaxFileSize(long nrtMaxFileSize) {
+    if (nrtMaxFileSize < 0) {
+      throw new IllegalArgumentException("nrtMaxFileSize must not be negative: "
+          + nrtMaxFileSize);
+    }
+    this.nrtMaxFileSize = nrtMaxFileSize;
+  }
+
+  /**
+   * Returns the maximum number of bytes of all files kept in local memory until they are synced.
+   */
+  public long getNrtMaxBuffered() {
+    return nrtMaxBuffered;
+  }
+
+  public void setNrtMaxBuffered(long nrtMaxBuffered) {
+    if (nrtMaxBuffered < 0) {
+      throw new IllegalArgumentException("nrtMaxBuffered must not be negative: "
+          + nrtMaxBuffered);
+    }
+    this.nrtMaxBuffered = nrtMaxBuffered;
+  }
+
+  /**
+   * Returns true if the blocks of new files are keyed by a hash of their content, so identical
+   * blocks of files of the index are stored once. Each block written costs a hash and an extra
+   * round trip when the block is new, and the size of the index and its quota still count the
+   * blocks of every file.
+   */
+  public boolean isDedup() {
+    return dedup;
+  }
+
+  public void setDedup(boolean dedup) {
+    this.dedup = dedup;
+  }
+
+  /**
+   * Returns the maximum number of bytes the files of the index may take up in the cluster, 0 if
+   * the index is unbounded. Writes fail with an IOException once the index reaches its quota.
+   */
+  public long getQuota() {
+    return quota;
+  }
+
+  public void setQuota(long quota) {
+    if (quota < 0) {
+      throw new IllegalArgumentException("quota must not be negative: " + quota);
+    }
+    this.quota = quota;
+  }
+
+  /**
+   * Returns the fraction of the quota above which writes are throttled and quota listeners are
+   * notified.
+   */
+  public double getQuotaSoftLimit() {
+    return quotaSoftLimit;
+  }
+
+  public void setQuotaSoftLimit(double quotaSoftLimit) {
+    if (quotaSoftLimit <= 0 || quotaSoftLimit > 1) {
+      throw new IllegalArgumentException("quotaSoftLimit must be in (0, 1]: " + quotaSoftLimit);
+    }
+    this.quotaSoftLimit = quotaSoftLimit;
+  }
+
+  /**
+   * Returns the local directory files spanning more than one block are copied to for reading
+   * through memory mapping, or null to read all files from the cluster. Each index uses a sub
+   * directory named after it.
+   */
+  public Path getDiskCachePath() {
+    return diskCachePath;
+  }
+
+  public void setDiskCachePath(Path diskCachePath) {
+    this.diskCachePath = diskCachePath;
+  }
+
+  /**
+   * Returns the maximum number of bytes of the local disk cache of each index.
+   */
+  public long getDiskCacheSize() {
+    return diskCacheSize;
+  }
+
+  public void setDiskCacheSize(long diskCacheSize) {
+    if (diskCacheSize <= 0) {
+      throw new IllegalArgumentException("diskCacheSize must be positive: " + diskCacheSize);
+    }
+    this.diskCacheSize = diskCacheSize;
+  }
+
+  private static void checkBlockSize(int blockSize) {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+    }
+  }
+}
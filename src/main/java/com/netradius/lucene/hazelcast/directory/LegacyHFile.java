@@ -0,0 +1,74 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.netradius.lucene.hazelcast.serializer.HazelcastDataSerializableFactory;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A file stored in the original single entry format, with all of its content serialized along
+ * with its metadata. Kept so existing entries stay readable, new files are always chunked.
+ *
+ * @author Erik R. Jensen
+ */
+public class LegacyHFile extends HFile {
+
+  public LegacyHFile() {}
+
+  @Override
+  public synchronized boolean isInline() {
+    return true;
+  }
+
+  @Override
+  public synchronized int numBlocks() {
+    return buffers.size();
+  }
+
+  @Override
+  public int getId() {
+    return HazelcastDataSerializableFactory.LEGACY_HFILE_TYPE;
+  }
+
+  @Override
+  public void writeData(ObjectDataOutput objectDataOutput) throws IOException {
+    objectDataOutput.writeLong(length);
+    objectDataOutput.writeLong(sizeInBytes);
+    objectDataOutput.writeObject(buffers);
+  }
+
+  @Override
+  public void readData(ObjectDataInput objectDataInput) throws IOException {
+    length = objectDataInput.readLong();
+    sizeInBytes = objectDataInput.readLong();
+    buffers = objectDataInput.readObject();
+  }
+
+  @Override
+  synchronized void writeTo(DataOutput out) throws IOException {
+    out.writeLong(length);
+    out.writeLong(sizeInBytes);
+    out.writeInt(buffers.size());
+    for (byte[] buffer : buffers) {
+      out.writeInt(buffer.length);
+      out.write(buffer);
+    }
+  }
+
+  @Override
+  synchronized void readFrom(DataInput in) throws IOException {
+    length = in.readLong();
+    sizeInBytes = in.readLong();
+    int count = in.readInt();
+    buffers = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      byte[] buffer = new byte[in.readInt()];
+      in.readFully(buffer);
+      buffers.add(buffer);
+    }
+  }
+}
@@ -2,8 +2,23 @@ package com.netradius.lucene.hazelcast.directoryprovider;
 
 import com.hazelcast.client.HazelcastClient;
 import com.hazelcast.client.config.ClientConfig;
+import com.hazelcast.client.config.ClientConnectionStrategyConfig;
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.config.MapStoreConfig;
+import com.hazelcast.core.DistributedObject;
+import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.LifecycleEvent;
+import com.hazelcast.core.LifecycleListener;
+import com.hazelcast.map.impl.MapService;
+import com.netradius.lucene.hazelcast.directory.HBlockStore;
+import com.netradius.lucene.hazelcast.directory.HCompression;
+import com.netradius.lucene.hazelcast.directory.HFileStore;
+import com.netradius.lucene.hazelcast.directory.HMapStore;
 import com.netradius.lucene.hazelcast.directory.HazelcastDirectory;
+import com.netradius.lucene.hazelcast.directory.HazelcastDirectoryConfig;
 import com.netradius.lucene.hazelcast.serializer.HazelcastDataSerializableFactory;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.store.LockFactory;
@@ -13,22 +28,86 @@ import org.hibernate.search.spi.BuildContext;
 import org.hibernate.search.store.DirectoryProvider;
 import org.hibernate.search.store.spi.DirectoryHelper;
 import org.hibernate.search.store.spi.LockFactoryCreator;
+import org.hibernate.search.util.configuration.impl.ConfigurationParseHelper;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Locale;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * Hazelcast directory provider implementation.
  *
+ * <p>By default the provider connects to a cluster as a client. Setting {@code hazelcast_mode}
+ * to {@code member} starts an embedded member instead, joining the members listed in
+ * {@code hazelcast_address} or found by multicast. An embedded member reads the blocks it owns
+ * or holds backups of from local memory.
+ *
+ * <p>Indexes with the same mode, group and address share one client or member, which is shut
+ * down when the last of them is stopped. Setting {@code hazelcast_instance_name} uses an
+ * existing instance of the application instead, which must have the
+ * {@link HazelcastDataSerializableFactory} registered and is left running. With
+ * {@code hazelcast_async_start} a client connects in the background while the remaining indexes
+ * are initialized, and the first index to start waits for the connection.
+ *
+ * <p>Setting {@code hazelcast_disk_cache_path} keeps local copies of large files read from the
+ * cluster in that directory, up to {@code hazelcast_disk_cache_size} bytes per index, and reads
+ * them through memory mapping.
+ *
+ * <p>Setting {@code hazelcast_nrt_max_file_size} keeps new files up to that size in local
+ * memory until they are synced, at most {@code hazelcast_nrt_max_buffered} bytes per index, so
+ * short lived near-real-time segments are never stored in the cluster.
+ *
+ * <p>Setting {@code hazelcast_dedup} stores identical blocks of the files of an index once,
+ * keyed by their content.
+ *
+ * <p>Setting {@code hazelcast_persistence_path} in member mode keeps the index in append-only
+ * files in that directory, written {@code hazelcast_persistence_write_delay} seconds behind
+ * changes, and loads it from there after a restart, all at once with
+ * {@code hazelcast_persistence_eager_load} or else on first use. Persistence is limited to a
+ * cluster of a single member, which must not share the path with other processes, see
+ * {@link HMapStore}. Members of a cluster the provider connects to as a client persist indexes
+ * when configured with {@link HFileStore} for the map named after the index and
+ * {@link HBlockStore} for the map of its blocks.
+ *
+ * <p>Setting {@code hazelcast_warm_up} to {@code all} or a list of file types, e.g.
+ * {@code tim,tip,nvd,dvd}, loads those files of the latest commit into the block cache when the
+ * provider starts, before the index is searched.
+ *
+ * <p>The metrics of each directory are registered as an MXBean named
+ * {@code com.netradius.lucene.hazelcast:type=HazelcastDirectory,index=<index name>}.
+ *
  * @author Dilip S Sisodia
  */
 @Slf4j
 public class HazelcastDirectoryProvider implements DirectoryProvider<HazelcastDirectory> {
 
+  public static final String CLIENT_MODE = "client";
+  public static final String MEMBER_MODE = "member";
+
+  public static final int DEFAULT_PERSISTENCE_WRITE_DELAY = 1;
+
   protected HazelcastInstance hazelcastInstance;
   protected String prefix;
   protected HazelcastDirectory directory;
   protected String indexName;
+  protected HazelcastDirectoryConfig config;
+  protected String mode;
+  protected boolean sharedInstance;
+  protected boolean asyncStart;
+  protected ObjectName metricsName;
+  protected Path persistencePath;
+  protected int persistenceWriteDelay;
+  protected boolean persistenceEagerLoad;
+  protected boolean warmUp;
+  protected Set<String> warmUpFileTypes;
   protected Properties properties;
   protected ServiceManager serviceManager;
 
@@ -44,38 +123,297 @@ public class HazelcastDirectoryProvider implements DirectoryProvider<HazelcastDi
     String groupName = properties.getProperty("hazelcast_group_name");
     String groupPassword = properties.getProperty("hazelcast_group_password");
     String address = properties.getProperty("hazelcast_address");
+    this.mode = properties.getProperty("hazelcast_mode", CLIENT_MODE);
+    if (!CLIENT_MODE.equals(mode) && !MEMBER_MODE.equals(mode)) {
+      throw new IllegalArgumentException("Invalid hazelcast_mode: " + mode);
+    }
+
+    this.config = new HazelcastDirectoryConfig();
+    config.setBlockCacheSize(ConfigurationParseHelper.getLongValue(properties,
+        "hazelcast_block_cache_size", HazelcastDirectoryConfig.DEFAULT_BLOCK_CACHE_SIZE));
+    config.setOffHeapCache(ConfigurationParseHelper.getBooleanValue(properties,
+        "hazelcast_off_heap_cache", false));
+    config.setBlockSize(ConfigurationParseHelper.getIntValue(properties,
+        "hazelcast_block_size", HazelcastDirectoryConfig.DEFAULT_BLOCK_SIZE));
+    config.setInlineThreshold(ConfigurationParseHelper.getIntValue(properties,
+        "hazelcast_inline_threshold", HazelcastDirectoryConfig.DEFAULT_INLINE_THRESHOLD));
+    config.setMaxPendingWrites(ConfigurationParseHelper.getIntValue(properties,
+        "hazelcast_max_pending_writes", HazelcastDirectoryConfig.DEFAULT_MAX_PENDING_WRITES));
+    config.setReadAheadBlocks(ConfigurationParseHelper.getIntValue(properties,
+        "hazelcast_read_ahead_blocks", HazelcastDirectoryConfig.DEFAULT_READ_AHEAD_BLOCKS));
+    config.setCommitEvents(ConfigurationParseHelper.getBooleanValue(properties,
+        "hazelcast_commit_events", false));
+    config.setQuota(ConfigurationParseHelper.getLongValue(properties, "hazelcast_quota", 0));
+    String quotaSoftLimit = properties.getProperty("hazelcast_quota_soft_limit");
+    if (quotaSoftLimit != null) {
+      config.setQuotaSoftLimit(Double.parseDouble(quotaSoftLimit));
+    }
+    String diskCachePath = properties.getProperty("hazelcast_disk_cache_path");
+    if (diskCachePath != null) {
+      config.setDiskCachePath(Paths.get(diskCachePath));
+      config.setDiskCacheSize(ConfigurationParseHelper.getLongValue(properties,
+          "hazelcast_disk_cache_size", HazelcastDirectoryConfig.DEFAULT_DISK_CACHE_SIZE));
+    }
+    config.setNrtMaxFileSize(ConfigurationParseHelper.getLongValue(properties,
+        "hazelcast_nrt_max_file_size", 0));
+    config.setNrtMaxBuffered(ConfigurationParseHelper.getLongValue(properties,
+        "hazelcast_nrt_max_buffered", HazelcastDirectoryConfig.DEFAULT_NRT_MAX_BUFFERED));
+    config.setDedup(ConfigurationParseHelper.getBooleanValue(properties, "hazelcast_dedup",
+        false));
+    config.setLocalReads(ConfigurationParseHelper.getBooleanValue(properties,
+        "hazelcast_local_reads", MEMBER_MODE.equals(mode)));
+    // per file type block sizes as a list of extension:size pairs, e.g. "fdt:262144,si:512"
+    String blockSizes = properties.getProperty("hazelcast_block_sizes");
+    if (blockSizes != null) {
+      for (String entry : blockSizes.split(",")) {
+        String[] pair = entry.trim().split(":");
+        if (pair.length != 2) {
+          throw new IllegalArgumentException("Invalid hazelcast_block_sizes entry: " + entry);
+        }
+        config.setBlockSize(pair[0].trim(), ConfigurationParseHelper.parseInt(pair[1].trim(),
+            "Invalid hazelcast_block_sizes entry: " + entry));
+      }
+    }
 
+    // per file type compression as a list of extension:compression pairs, e.g. "fdt:fast,tvd:high"
+    String compressions = properties.getProperty("hazelcast_compression");
+    if (compressions != null) {
+      for (String entry : compressions.split(",")) {
+        String[] pair = entry.trim().split(":");
+        if (pair.length != 2) {
+          throw new IllegalArgumentException("Invalid hazelcast_compression entry: " + entry);
+        }
+        config.setCompression(pair[0].trim(),
+            HCompression.valueOf(pair[1].trim().toUpperCase(Locale.ROOT)));
+      }
+    }
+
+    String persistence = properties.getProperty("hazelcast_persistence_path");
+    if (persistence != null) {
+      if (MEMBER_MODE.equals(mode)) {
+        this.persistencePath = Paths.get(persistence);
+        this.persistenceWriteDelay = ConfigurationParseHelper.getIntValue(properties,
+            "hazelcast_persistence_write_delay", DEFAULT_PERSISTENCE_WRITE_DELAY);
+        this.persistenceEagerLoad = ConfigurationParseHelper.getBooleanValue(properties,
+            "hazelcast_persistence_eager_load", false);
+      } else {
+        log.warn("Ignoring hazelcast_persistence_path of index " + indexName + " in client mode,"
+            + " persistence is configured on the members");
+      }
+    }
+
+    // all or a list of file types to load when starting, e.g. "tim,tip,nvd,dvd"
+    String warmUpTypes = properties.getProperty("hazelcast_warm_up");
+    if (warmUpTypes != null && !"false".equals(warmUpTypes)) {
+      this.warmUp = true;
+      if (!"all".equals(warmUpTypes) && !"true".equals(warmUpTypes)) {
+        this.warmUpFileTypes = new HashSet<>();
+        for (String type : warmUpTypes.split(",")) {
+          warmUpFileTypes.add(type.trim());
+        }
+      }
+    }
+
+    String instanceName = properties.getProperty("hazelcast_instance_name");
+    this.asyncStart = ConfigurationParseHelper.getBooleanValue(properties,
+        "hazelcast_async_start", false);
+    if (instanceName != null) {
+      this.hazelcastInstance = findInstance(instanceName);
+      if (persistencePath != null) {
+        log.warn("Ignoring hazelcast_persistence_path of index " + indexName + ", persistence of"
+            + " instance " + instanceName + " is configured by the application");
+      }
+    } else {
+      String key = mode + "|" + groupName + "|" + groupPassword + "|" + address + "|" + asyncStart
+          + "|" + persistencePath + "|" + persistenceWriteDelay + "|" + persistenceEagerLoad;
+      this.hazelcastInstance = HazelcastInstanceRegistry.acquire(key,
+          () -> MEMBER_MODE.equals(mode) ? newMember(groupName, groupPassword, address)
+              : newClient(groupName, groupPassword, address));
+      this.sharedInstance = true;
+      if (persistencePath != null) {
+        configurePersistence(prefix != null ? prefix : indexName);
+      }
+    }
+  }
+
+  /**
+   * Configures the map store of the metadata map of the index on the shared member, which is
+   * already running. The configuration only applies to a map created afterwards, so this fails
+   * if the map exists already or is configured otherwise. Blocks maps are covered by the member
+   * configuration.
+   *
+   * @param storeName the name of the metadata map
+   * @throws IllegalStateException if the map would not be persisted
+   */
+  protected void configurePersistence(String storeName) {
+    MapStoreConfig storeConfig = HMapStore.newConfig(HFileStore.class, persistencePath,
+        persistenceWriteDelay, persistenceEagerLoad);
+    Config memberConfig = hazelcastInstance.getConfig();
+    MapConfig current = memberConfig.getMapConfigOrNull(storeName);
+    if (current != null) {
+      if (!storeConfig.equals(current.getMapStoreConfig())) {
+        throw new IllegalStateException("Map " + storeName + " of index " + indexName
+            + " is configured without the map store of hazelcast_persistence_path");
+      }
+      return;
+    }
+    for (DistributedObject object : hazelcastInstance.getDistributedObjects()) {
+      if (MapService.SERVICE_NAME.equals(object.getServiceName())
+          && storeName.equals(object.getName())) {
+        throw new IllegalStateException("Map " + storeName + " of index " + indexName
+            + " was created before hazelcast_persistence_path was configured");
+      }
+    }
+    memberConfig.addMapConfig(new MapConfig(storeName).setMapStoreConfig(storeConfig));
+  }
+
+  protected HazelcastInstance findInstance(String instanceName) {
+    HazelcastInstance instance = MEMBER_MODE.equals(mode)
+        ? Hazelcast.getHazelcastInstanceByName(instanceName)
+        : HazelcastClient.getHazelcastClientByName(instanceName);
+    if (instance == null) {
+      throw new IllegalArgumentException("No running Hazelcast " + mode + " named "
+          + instanceName);
+    }
+    return instance;
+  }
+
+  protected HazelcastInstance newClient(String groupName, String groupPassword, String address) {
     ClientConfig clientConfig = new ClientConfig();
     clientConfig.getNetworkConfig().getAddresses().add(address);
     clientConfig.getGroupConfig().setName(groupName);
     clientConfig.getGroupConfig().setPassword(groupPassword);
+    if (asyncStart) {
+      clientConfig.getConnectionStrategyConfig().setAsyncStart(true)
+          .setReconnectMode(ClientConnectionStrategyConfig.ReconnectMode.ASYNC);
+    }
 
     clientConfig.getSerializationConfig().addDataSerializableFactory(
         HazelcastDataSerializableFactory.FACTORY_ID,
         new HazelcastDataSerializableFactory());
 
-    this.hazelcastInstance = HazelcastClient.newHazelcastClient(clientConfig);
+    return HazelcastClient.newHazelcastClient(clientConfig);
+  }
+
+  protected HazelcastInstance newMember(String groupName, String groupPassword, String address) {
+    Config memberConfig = new Config();
+    if (groupName != null) {
+      memberConfig.getGroupConfig().setName(groupName);
+    }
+    if (groupPassword != null) {
+      memberConfig.getGroupConfig().setPassword(groupPassword);
+    }
+    if (address != null) {
+      // comma separated list of members to join
+      JoinConfig join = memberConfig.getNetworkConfig().getJoin();
+      join.getMulticastConfig().setEnabled(false);
+      join.getTcpIpConfig().setEnabled(true);
+      for (String member : address.split(",")) {
+        join.getTcpIpConfig().addMember(member.trim());
+      }
+    }
+    // block maps are named after the index followed by -blocks
+    MapConfig blocksConfig = new MapConfig("*" + HBlockStore.MAP_SUFFIX).setReadBackupData(true);
+    if (persistencePath != null) {
+      blocksConfig.setMapStoreConfig(HMapStore.newConfig(HBlockStore.class, persistencePath,
+          persistenceWriteDelay, persistenceEagerLoad));
+    }
+    memberConfig.addMapConfig(blocksConfig);
+
+    memberConfig.getSerializationConfig().addDataSerializableFactory(
+        HazelcastDataSerializableFactory.FACTORY_ID,
+        new HazelcastDataSerializableFactory());
+
+    return Hazelcast.newHazelcastInstance(memberConfig);
   }
 
   public void start(DirectoryBasedIndexManager directoryBasedIndexManager) {
     try {
+      awaitConnected();
       LockFactory lockFactory = serviceManager.requestService(LockFactoryCreator.class)
           .createLockFactory(null, properties);
-      this.directory = new HazelcastDirectory(hazelcastInstance, prefix, indexName, lockFactory);
+      this.directory = new HazelcastDirectory(hazelcastInstance, prefix, indexName, lockFactory,
+          config);
       this.properties = null;
       DirectoryHelper.initializeIndexIfNeeded(this.directory);
+      registerMetrics();
+      if (warmUp) {
+        warmUp();
+      }
     } finally {
       serviceManager.releaseService(LockFactoryCreator.class);
     }
 
   }
 
+  /**
+   * Waits for a client started with {@code hazelcast_async_start} to connect to the cluster.
+   */
+  protected void awaitConnected() {
+    if (!asyncStart || MEMBER_MODE.equals(mode)) {
+      return;
+    }
+    CountDownLatch latch = new CountDownLatch(1);
+    String registration = hazelcastInstance.getLifecycleService().addLifecycleListener(
+        new LifecycleListener() {
+          @Override
+          public void stateChanged(LifecycleEvent event) {
+            if (event.getState() == LifecycleEvent.LifecycleState.CLIENT_CONNECTED
+                || event.getState() == LifecycleEvent.LifecycleState.SHUTTING_DOWN) {
+              latch.countDown();
+            }
+          }
+        });
+    try {
+      // the member list is empty until the client has connected
+      if (hazelcastInstance.getCluster().getMembers().isEmpty()) {
+        latch.await();
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while connecting index " + indexName);
+    } finally {
+      hazelcastInstance.getLifecycleService().removeLifecycleListener(registration);
+    }
+  }
+
+  protected void warmUp() {
+    try {
+      directory.warmUp(warmUpFileTypes);
+    } catch (IOException ex) {
+      // searches still work, they fetch the blocks themselves
+      log.warn("Failed to warm up index " + indexName + ": " + ex.getMessage());
+    }
+  }
+
+  protected void registerMetrics() {
+    try {
+      ObjectName name = new ObjectName("com.netradius.lucene.hazelcast:type=HazelcastDirectory,"
+          + "index=" + ObjectName.quote(indexName));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(directory.getMetrics(), name);
+      this.metricsName = name;
+    } catch (JMException ex) {
+      log.warn("Failed to register metrics of index " + indexName + ": " + ex.getMessage());
+    }
+  }
+
   public void stop() {
+    if (metricsName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+      } catch (JMException ex) {
+        log.warn("Failed to unregister metrics of index " + indexName + ": " + ex.getMessage());
+      }
+      metricsName = null;
+    }
     try {
       this.directory.close();
     } catch (IOException ex) {
       log.error("IOException: " + ex.getMessage());
     }
+    if (sharedInstance) {
+      HazelcastInstanceRegistry.release(hazelcastInstance);
+    }
   }
 
   public HazelcastDirectory getDirectory() {
@@ -0,0 +1,88 @@
+package com.netradius.lucene.hazelcast.directoryprovider;
+
+import com.hazelcast.core.HazelcastInstance;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Hazelcast instances shared by the directory providers of all indexes connecting to the same
+ * cluster with the same settings, so an application with many indexes opens one client or
+ * member instead of one per index. Instances are reference counted and shut down when the last
+ * index using them is stopped.
+ *
+ * @author Erik R. Jensen
+ */
+@Slf4j
+public final class HazelcastInstanceRegistry {
+
+  private static final Map<String, SharedInstance> INSTANCES = new HashMap<>();
+  private static final Map<HazelcastInstance, SharedInstance> KEYS = new IdentityHashMap<>();
+
+  private HazelcastInstanceRegistry() {}
+
+  /**
+   * Returns the instance registered for a key, creating it if there is none.
+   *
+   * @param key the settings the instance was created with
+   * @param factory creates the instance
+   * @return the instance
+   */
+  public static synchronized HazelcastInstance acquire(String key,
+      Supplier<HazelcastInstance> factory) {
+    SharedInstance shared = INSTANCES.get(key);
+    if (shared == null || !shared.instance.getLifecycleService().isRunning()) {
+      shared = new SharedInstance(key, factory.get());
+      INSTANCES.put(key, shared);
+      KEYS.put(shared.instance, shared);
+    }
+    shared.references++;
+    return shared.instance;
+  }
+
+  /**
+   * Releases an instance returned by {@link #acquire(String, Supplier)}, shutting it down once
+   * it is no longer used.
+   *
+   * @param instance the instance
+   */
+  public static synchronized void release(HazelcastInstance instance) {
+    SharedInstance shared = KEYS.get(instance);
+    if (shared == null) {
+      log.warn("Released unknown Hazelcast instance " + instance.getName());
+      return;
+    }
+    if (--shared.references == 0) {
+      KEYS.remove(instance);
+      INSTANCES.remove(shared.key, shared);
+      // a graceful shutdown migrates the partitions owned by a member first
+      instance.shutdown();
+    }
+  }
+
+  /**
+   * Returns the number of indexes using the instance registered for a key.
+   *
+   * @param key the settings the instance was created with
+   * @return the number of references, 0 if there is no instance
+   */
+  public static synchronized int references(String key) {
+    SharedInstance shared = INSTANCES.get(key);
+    return shared == null ? 0 : shared.references;
+  }
+
+  private static class SharedInstance {
+
+    private final String key;
+    private final HazelcastInstance instance;
+    private int references;
+
+    private SharedInstance(String key, HazelcastInstance instance) {
+      this.key = key;
+      this.instance = instance;
+    }
+  }
+}
@@ -2,7 +2,14 @@ package com.netradius.lucene.hazelcast.serializer;
 
 import com.hazelcast.nio.serialization.DataSerializableFactory;
 import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+import com.netradius.lucene.hazelcast.directory.HBlockKey;
+import com.netradius.lucene.hazelcast.directory.HCommitEvent;
+import com.netradius.lucene.hazelcast.directory.HContentKey;
+import com.netradius.lucene.hazelcast.directory.HContentProcessor;
+import com.netradius.lucene.hazelcast.directory.HCopyBlocksTask;
 import com.netradius.lucene.hazelcast.directory.HFile;
+import com.netradius.lucene.hazelcast.directory.HVerifyTask;
+import com.netradius.lucene.hazelcast.directory.LegacyHFile;
 
 /**
  * Hazelcast data serializer.
@@ -13,11 +20,39 @@ public class HazelcastDataSerializableFactory implements DataSerializableFactory
 
   public static final int FACTORY_ID = 1;
 
-  public static final int HFILE_TYPE = 1;
+  public static final int LEGACY_HFILE_TYPE = 1;
+
+  public static final int HFILE_TYPE = 2;
+
+  public static final int HBLOCK_KEY_TYPE = 3;
+
+  public static final int HCOPY_BLOCKS_TASK_TYPE = 4;
+
+  public static final int HCOMMIT_EVENT_TYPE = 5;
+
+  public static final int HVERIFY_TASK_TYPE = 6;
+
+  public static final int HCONTENT_KEY_TYPE = 7;
+
+  public static final int HCONTENT_PROCESSOR_TYPE = 8;
 
   public IdentifiedDataSerializable create(int typeId) {
     if (typeId == HFILE_TYPE) {
       return new HFile();
+    } else if (typeId == HBLOCK_KEY_TYPE) {
+      return new HBlockKey();
+    } else if (typeId == HCOPY_BLOCKS_TASK_TYPE) {
+      return new HCopyBlocksTask();
+    } else if (typeId == HCOMMIT_EVENT_TYPE) {
+      return new HCommitEvent();
+    } else if (typeId == HVERIFY_TASK_TYPE) {
+      return new HVerifyTask();
+    } else if (typeId == HCONTENT_KEY_TYPE) {
+      return new HContentKey();
+    } else if (typeId == HCONTENT_PROCESSOR_TYPE) {
+      return new HContentProcessor();
+    } else if (typeId == LEGACY_HFILE_TYPE) {
+      return new LegacyHFile();
     } else {
       return null;
     }
@@ -0,0 +1,96 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.netradius.lucene.hazelcast.serializer.HazelcastDataSerializableFactory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.SingleInstanceLockFactory;
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Starts a member for each test and closes the directories opened on it.
+ *
+ * @author Erik R. Jensen
+ */
+public abstract class DirectoryTestSupport {
+
+  protected HazelcastInstance hazelcastInstance;
+  private final List<HazelcastDirectory> directories = new ArrayList<>();
+
+  @Before
+  public void startMember() {
+    hazelcastInstance = Hazelcast.newHazelcastInstance(newMemberConfig());
+  }
+
+  @After
+  public void stopMember() throws IOException {
+    try {
+      for (HazelcastDirectory directory : directories) {
+        directory.close();
+      }
+    } finally {
+      hazelcastInstance.shutdown();
+    }
+  }
+
+  static Config newMemberConfig() {
+    Config config = new Config();
+    config.getNetworkConfig().getJoin().getMulticastConfig().setEnabled(false);
+    config.getSerializationConfig().addDataSerializableFactory(
+        HazelcastDataSerializableFactory.FACTORY_ID,
+        new HazelcastDataSerializableFactory());
+    return config;
+  }
+
+  /**
+   * Returns a configuration with blocks small enough for a few kilobytes to span several.
+   */
+  static HazelcastDirectoryConfig newConfig() {
+    HazelcastDirectoryConfig config = new HazelcastDirectoryConfig();
+    config.setBlockSize(1000);
+    return config;
+  }
+
+  HazelcastDirectory newDirectory(String indexName, HazelcastDirectoryConfig config) {
+    return newDirectory(hazelcastInstance, indexName, config);
+  }
+
+  HazelcastDirectory newDirectory(HazelcastInstance instance, String indexName,
+      HazelcastDirectoryConfig config) {
+    HazelcastDirectory directory = new HazelcastDirectory(instance, null, indexName,
+        new SingleInstanceLockFactory(), config);
+    directories.add(directory);
+    return directory;
+  }
+
+  static byte[] read(HazelcastDirectory directory, String name) throws IOException {
+    try (IndexInput in = directory.openInput(name, IOContext.DEFAULT)) {
+      byte[] data = new byte[(int) in.length()];
+      in.readBytes(data, 0, data.length);
+      return data;
+    }
+  }
+
+  /**
+   * Writes random content, mixing single byte and bulk writes.
+   */
+  static byte[] write(HazelcastDirectory directory, String name, int size) throws IOException {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    try (IndexOutput out = directory.createOutput(name, IOContext.DEFAULT)) {
+      out.writeBytes(data, 0, 100);
+      out.writeByte(data[100]);
+      out.writeBytes(data, 101, size - 101);
+    }
+    return data;
+  }
+}
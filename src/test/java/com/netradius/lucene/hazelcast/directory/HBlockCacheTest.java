@@ -0,0 +1,127 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * HBlockCache tests.
+ */
+public class HBlockCacheTest extends DirectoryTestSupport {
+
+  @Test
+  public void hitAndMissTest() {
+    HBlockCache cache = new HBlockCache(16 * 1024);
+    HBlockKey key = new HBlockKey(1, 0);
+    Assert.assertNull(cache.get(key));
+    byte[] block = {1, 2, 3};
+    cache.put(key, block);
+    Assert.assertEquals(ByteBuffer.wrap(block), cache.get(key));
+    Assert.assertEquals(1, cache.getHits());
+    Assert.assertEquals(1, cache.getMisses());
+    Assert.assertEquals(block.length, cache.ramBytesUsed());
+  }
+
+  @Test
+  public void evictionTest() {
+    HBlockCache cache = new HBlockCache(16 * 1024);
+    for (int i = 0; i < 100; i++) {
+      cache.put(new HBlockKey(1, i), new byte[1024]);
+    }
+    Assert.assertTrue(cache.ramBytesUsed() <= cache.getMaxBytes());
+    Assert.assertTrue(cache.getEvictions() >= 100 - 16);
+    Assert.assertTrue(cache.contains(new HBlockKey(1, 99)));
+  }
+
+  @Test
+  public void oversizedTest() {
+    // blocks larger than a segment are not cached rather than evicting it
+    HBlockCache cache = new HBlockCache(16 * 1024);
+    cache.put(new HBlockKey(1, 0), new byte[1024]);
+    ByteBuffer oversized = cache.put(new HBlockKey(1, 1), new byte[1025]);
+    Assert.assertEquals(1025, oversized.remaining());
+    Assert.assertTrue(cache.contains(new HBlockKey(1, 0)));
+    Assert.assertFalse(cache.contains(new HBlockKey(1, 1)));
+    Assert.assertEquals(1, cache.getOversized());
+    Assert.assertEquals(0, cache.getEvictions());
+  }
+
+  @Test
+  public void disabledTest() {
+    HBlockCache cache = new HBlockCache(0);
+    Assert.assertFalse(cache.isEnabled());
+    Assert.assertEquals(3, cache.put(new HBlockKey(1, 0), new byte[3]).remaining());
+    Assert.assertFalse(cache.contains(new HBlockKey(1, 0)));
+    Assert.assertNull(cache.get(new HBlockKey(1, 0)));
+  }
+
+  @Test
+  public void offHeapTest() {
+    HBlockCache cache = new HBlockCache(16 * 1024, true);
+    byte[] block = {1, 2, 3};
+    cache.put(new HBlockKey(1, 0), block);
+    block[0] = 4;
+    ByteBuffer cached = cache.get(new HBlockKey(1, 0));
+    Assert.assertFalse(cached.isDirect());
+    Assert.assertEquals(ByteBuffer.wrap(new byte[] {1, 2, 3}), cached);
+    Assert.assertEquals(0, cache.ramBytesUsed());
+    Assert.assertEquals(block.length, cache.getOffHeapBytes());
+    Assert.assertTrue(cache.getOffHeapAllocatedBytes() > 0);
+  }
+
+  @Test
+  public void offHeapReuseTest() {
+    HBlockCache cache = new HBlockCache(16 * 1024, true);
+    Random random = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      byte[] block = new byte[1 + random.nextInt(1024)];
+      random.nextBytes(block);
+      HBlockKey key = new HBlockKey(1, i);
+      cache.put(key, block);
+      Assert.assertEquals(ByteBuffer.wrap(block), cache.get(key));
+    }
+    // evicted pages are reused rather than allocating more
+    Assert.assertTrue(cache.getEvictions() > 0);
+    Assert.assertTrue(cache.getOffHeapBytes() <= cache.getMaxBytes());
+    Assert.assertEquals(cache.getMaxBytes(), cache.getOffHeapAllocatedBytes());
+  }
+
+  @Test
+  public void directoryTest() throws IOException {
+    HazelcastDirectory directory = newDirectory("test", newConfig());
+    byte[] data = write(directory, "_0.tim", 5000);
+    Assert.assertArrayEquals(data, read(directory, "_0.tim"));
+    HBlockCache cache = directory.getBlockCache();
+    long hits = cache.getHits();
+    Assert.assertArrayEquals(data, read(directory, "_0.tim"));
+    Assert.assertTrue(cache.getHits() > hits);
+    Assert.assertEquals(data.length, cache.ramBytesUsed());
+    // deleted files are invalidated
+    directory.deleteFile("_0.tim");
+    Assert.assertEquals(0, cache.ramBytesUsed());
+  }
+
+  @Test
+  public void offHeapDirectoryTest() throws IOException {
+    HazelcastDirectoryConfig config = newConfig();
+    config.setOffHeapCache(true);
+    HazelcastDirectory directory = newDirectory("offheap", config);
+    byte[] data = write(directory, "_0.tim", 5000);
+    Assert.assertArrayEquals(data, read(directory, "_0.tim"));
+    try (IndexInput in = directory.openInput("_0.tim", IOContext.DEFAULT)) {
+      // across two cached direct buffers
+      in.seek(998);
+      Assert.assertEquals(((data[998] & 0xFF) << 24) | ((data[999] & 0xFF) << 16)
+          | ((data[1000] & 0xFF) << 8) | (data[1001] & 0xFF), in.readInt());
+    }
+    Assert.assertEquals(0, directory.getBlockCache().ramBytesUsed());
+    Assert.assertEquals(data.length, directory.offHeapBytesUsed());
+    directory.deleteFile("_0.tim");
+    Assert.assertEquals(0, directory.offHeapBytesUsed());
+  }
+}
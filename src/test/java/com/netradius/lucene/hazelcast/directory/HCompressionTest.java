@@ -0,0 +1,64 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+
+/**
+ * HCompression tests.
+ */
+public class HCompressionTest extends DirectoryTestSupport {
+
+  private static byte[] repetitive(int size) {
+    byte[] data = new byte[size];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 7);
+    }
+    return data;
+  }
+
+  @Test
+  public void roundTripTest() throws IOException {
+    byte[] data = repetitive(10000);
+    for (HCompression compression : HCompression.values()) {
+      byte[] compressed = compression.compress(data);
+      Assert.assertArrayEquals(compression.name(), data,
+          compression.decompress(compressed, data.length));
+      Assert.assertSame(compression, HCompression.forId(compression.getId()));
+    }
+    Assert.assertSame(data, HCompression.NONE.compress(data));
+    Assert.assertTrue(HCompression.FAST.compress(data).length < data.length / 4);
+  }
+
+  @Test(expected = IOException.class)
+  public void unknownIdTest() throws IOException {
+    HCompression.forId((byte) 127);
+  }
+
+  @Test
+  public void directoryTest() throws IOException {
+    HazelcastDirectoryConfig config = newConfig();
+    config.setCompression("nvd", HCompression.FAST);
+    config.setCompression("tvd", HCompression.HIGH);
+    HazelcastDirectory directory = newDirectory("test", config);
+    byte[] data = repetitive(10000);
+    for (String name : new String[] {"_0.nvd", "_0.tvd"}) {
+      try (IndexOutput out = directory.createOutput(name, IOContext.DEFAULT)) {
+        out.writeBytes(data, 0, data.length);
+      }
+      Assert.assertArrayEquals(data, read(directory, name));
+      HFile file = directory.getFile(name);
+      long stored = 0;
+      for (int i = 0; i < file.numBlocks(); i++) {
+        stored += directory.blocks.get(new HBlockKey(file.getFileId(), i)).length;
+      }
+      Assert.assertTrue(stored < data.length / 4);
+    }
+    Assert.assertEquals(HCompression.FAST, directory.getFile("_0.nvd").getCompression());
+    Assert.assertEquals(HCompression.HIGH, directory.getFile("_0.tvd").getCompression());
+    Assert.assertEquals(2 * data.length, directory.metrics.uncompressedBytes.sum());
+  }
+}
@@ -0,0 +1,72 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * HContentProcessor tests.
+ */
+public class HContentProcessorTest {
+
+  private final byte[] block = {1, 2, 3};
+  private final Map.Entry<HBlockKey, byte[]> entry =
+      new AbstractMap.SimpleEntry<>(HContentKey.of(block), null);
+
+  @Test
+  public void addTest() {
+    // only referencing a block not stored yet leaves the entry alone
+    Assert.assertEquals(Boolean.FALSE, HContentProcessor.add(null, 1, 0).process(entry));
+    Assert.assertNull(entry.getValue());
+    Assert.assertEquals(Boolean.FALSE, HContentProcessor.add(block, 1, 0).process(entry));
+    Assert.assertEquals(block.length, HContentProcessor.contentLength(entry.getValue()));
+    Assert.assertArrayEquals(block, Arrays.copyOf(entry.getValue(), block.length));
+    Assert.assertEquals(1, HContentProcessor.references(entry.getValue()));
+    Assert.assertEquals(Boolean.TRUE, HContentProcessor.add(null, 2, 0).process(entry));
+    Assert.assertEquals(2, HContentProcessor.references(entry.getValue()));
+    // the same block of a file at another index is another reference
+    Assert.assertEquals(Boolean.TRUE, HContentProcessor.add(null, 2, 1).process(entry));
+    Assert.assertEquals(3, HContentProcessor.references(entry.getValue()));
+    Assert.assertEquals(block.length, HContentProcessor.contentLength(entry.getValue()));
+  }
+
+  @Test
+  public void releaseTest() {
+    HContentProcessor.add(block, 1, 0).process(entry);
+    HContentProcessor.add(null, 2, 0).process(entry);
+    Assert.assertEquals(1, HContentProcessor.release(1, 0).process(entry));
+    Assert.assertNotNull(entry.getValue());
+    // removed with its last reference
+    Assert.assertEquals(0, HContentProcessor.release(2, 0).process(entry));
+    Assert.assertNull(entry.getValue());
+    Assert.assertEquals(0, HContentProcessor.release(2, 0).process(entry));
+  }
+
+  @Test
+  public void retryTest() {
+    // retried operations count each block once
+    HContentProcessor.add(block, 1, 0).process(entry);
+    Assert.assertEquals(Boolean.TRUE, HContentProcessor.add(block, 1, 0).process(entry));
+    Assert.assertEquals(Boolean.TRUE, HContentProcessor.add(null, 2, 0).process(entry));
+    Assert.assertEquals(Boolean.TRUE, HContentProcessor.add(null, 2, 0).process(entry));
+    Assert.assertEquals(2, HContentProcessor.references(entry.getValue()));
+    Assert.assertEquals(1, HContentProcessor.release(1, 0).process(entry));
+    Assert.assertEquals(1, HContentProcessor.release(1, 0).process(entry));
+    Assert.assertArrayEquals(block, Arrays.copyOf(entry.getValue(), block.length));
+    Assert.assertEquals(0, HContentProcessor.release(2, 0).process(entry));
+    Assert.assertNull(entry.getValue());
+  }
+
+  @Test
+  public void statTest() {
+    Assert.assertNull(HContentProcessor.stat().process(entry));
+    HContentProcessor.add(block, 1, 0).process(entry);
+    Assert.assertArrayEquals(new long[] {block.length, 1},
+        (long[]) HContentProcessor.stat().process(entry));
+    Assert.assertNull(HContentProcessor.stat().getBackupProcessor());
+    Assert.assertNotNull(HContentProcessor.release(1, 0).getBackupProcessor());
+  }
+}
@@ -0,0 +1,131 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * HDedup tests.
+ */
+public class HDedupTest extends DirectoryTestSupport {
+
+  private HazelcastDirectory directory;
+
+  @Before
+  public void setup() {
+    HazelcastDirectoryConfig config = newConfig();
+    config.setCompression("nvd", HCompression.FAST);
+    config.setDedup(true);
+    directory = newDirectory("dedup", config);
+  }
+
+  private byte[] writeSynced(String name, int size) throws IOException {
+    byte[] data = write(directory, name, size);
+    directory.sync(Collections.singleton(name));
+    return data;
+  }
+
+  private List<HBlockKey> blockKeys(String name) throws IOException {
+    HFile file = directory.getFile(name);
+    directory.loadBlockTable(file);
+    List<HBlockKey> keys = new ArrayList<>();
+    for (int i = 0; i < file.numBlocks(); i++) {
+      keys.add(file.blockKey(i));
+    }
+    return keys;
+  }
+
+  private long references(HBlockKey key) {
+    long[] stat = (long[]) directory.blocks.executeOnKey(key, HContentProcessor.stat());
+    return stat == null ? 0 : stat[1];
+  }
+
+  @Test
+  public void sharedBlocksTest() throws IOException {
+    byte[] data = writeSynced("_0.tim", 2500);
+    writeSynced("_1.tim", 2500);
+    List<HBlockKey> keys = blockKeys("_0.tim");
+    Assert.assertEquals(keys, blockKeys("_1.tim"));
+    for (HBlockKey key : keys) {
+      Assert.assertTrue(key instanceof HContentKey);
+      Assert.assertEquals(2, references(key));
+    }
+    Assert.assertEquals(keys.size(), directory.getMetrics().getDedupHits());
+    Assert.assertEquals(data.length, directory.getMetrics().getDedupHitBytes());
+    Assert.assertArrayEquals(data, read(directory, "_1.tim"));
+    Assert.assertEquals(Arrays.asList(true, true),
+        new ArrayList<>(directory.verify(null).values()));
+  }
+
+  @Test
+  public void compressedTest() throws IOException {
+    byte[] data = writeSynced("_0.tim", 2500);
+    byte[] compressed = writeSynced("_0.nvd", 2500);
+    // the same content is stored compressed under other keys
+    Assert.assertTrue(Collections.disjoint(blockKeys("_0.tim"), blockKeys("_0.nvd")));
+    Assert.assertArrayEquals(data, read(directory, "_0.tim"));
+    Assert.assertArrayEquals(compressed, read(directory, "_0.nvd"));
+    Assert.assertEquals(0, directory.getMetrics().getDedupHits());
+  }
+
+  @Test
+  public void reportTest() throws IOException {
+    writeSynced("_0.tim", 2500);
+    writeSynced("_1.tim", 2500);
+    HDedupReport report = directory.dedupReport();
+    int numBlocks = blockKeys("_0.tim").size();
+    Assert.assertEquals(2 * numBlocks, report.getReferences());
+    Assert.assertEquals(numBlocks, report.getBlocks());
+    Assert.assertEquals(2500, report.getSavedBytes());
+    Assert.assertTrue(report.getRatio() > 1);
+  }
+
+  @Test
+  public void copyTest() throws IOException {
+    // copies within the index only reference the blocks again
+    byte[] data = writeSynced("_0.tim", 2500);
+    List<HBlockKey> keys = blockKeys("_0.tim");
+    directory.copyFrom(directory, "_0.tim", "_1.tim", IOContext.DEFAULT);
+    Assert.assertEquals(keys, blockKeys("_1.tim"));
+    for (HBlockKey key : keys) {
+      Assert.assertEquals(2, references(key));
+    }
+    directory.deleteFile("_0.tim");
+    Assert.assertArrayEquals(data, read(directory, "_1.tim"));
+    directory.deleteFile("_1.tim");
+    for (HBlockKey key : keys) {
+      Assert.assertFalse(directory.blocks.containsKey(key));
+    }
+  }
+
+  @Test
+  public void flushTest() throws IOException {
+    // the last block published by a flush is released once it is replaced
+    byte[] data = new byte[2500];
+    new Random(2500).nextBytes(data);
+    try (IndexOutput out = directory.createOutput("_0.tim", IOContext.DEFAULT)) {
+      out.writeBytes(data, 0, 1500);
+      ((HOutputStream) out).flush();
+      // published again unchanged, the block is still referenced once
+      ((HOutputStream) out).flush();
+      HBlockKey partial = HContentKey.of(Arrays.copyOfRange(data, 1000, 1500));
+      Assert.assertEquals(1, references(partial));
+      out.writeBytes(data, 1500, 1000);
+    }
+    Assert.assertArrayEquals(data, read(directory, "_0.tim"));
+    HBlockKey partial = HContentKey.of(Arrays.copyOfRange(data, 1000, 1500));
+    Assert.assertFalse(directory.blocks.containsKey(partial));
+    for (HBlockKey key : blockKeys("_0.tim")) {
+      Assert.assertEquals(1, references(key));
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.CRC32;
+
+/**
+ * HDiskCache tests.
+ */
+public class HDiskCacheTest extends DirectoryTestSupport {
+
+  private Path path;
+
+  @Before
+  public void createPath() throws IOException {
+    path = Files.createTempDirectory("disk-cache");
+  }
+
+  @After
+  public void deletePath() throws IOException {
+    IOUtils.rm(path);
+  }
+
+  static void await(HDiskCache cache) throws InterruptedException {
+    for (int i = 0; i < 1000 && cache.isLoading(); i++) {
+      Thread.sleep(10);
+    }
+  }
+
+  private static HFileSnapshot snapshot(long fileId, byte[] data) {
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    return new HFileSnapshot("tim", fileId, 1000, data.length, (data.length + 999) / 1000,
+        crc.getValue(), HCompression.NONE, null, null);
+  }
+
+  private static byte[] random(int size) {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    return data;
+  }
+
+  private static byte[] read(IndexInput in) throws IOException {
+    try (IndexInput input = in) {
+      byte[] data = new byte[(int) input.length()];
+      input.readBytes(data, 0, data.length);
+      return data;
+    }
+  }
+
+  @Test
+  public void loadTest() throws Exception {
+    byte[] data = random(5000);
+    HFileSnapshot file = snapshot(1, data);
+    try (HDiskCache cache = new HDiskCache(path, 12000)) {
+      Assert.assertNull(cache.openInput(file, IOContext.DEFAULT));
+      cache.load(file, out -> out.write(data));
+      await(cache);
+      Assert.assertTrue(cache.contains(1));
+      Assert.assertEquals(data.length, cache.getBytes());
+      Assert.assertArrayEquals(data, read(cache.openInput(file, IOContext.DEFAULT)));
+    }
+  }
+
+  @Test
+  public void restartTest() throws Exception {
+    byte[] data = random(5000);
+    HFileSnapshot file = snapshot(1, data);
+    try (HDiskCache cache = new HDiskCache(path, 12000)) {
+      cache.load(file, out -> out.write(data));
+      await(cache);
+    }
+    // copies survive a restart and are validated against the metadata
+    try (HDiskCache cache = new HDiskCache(path, 12000)) {
+      Assert.assertArrayEquals(data, read(cache.openInput(file, IOContext.DEFAULT)));
+    }
+    Files.write(path.resolve("1"), new byte[] {(byte) ~data[0]}, StandardOpenOption.WRITE);
+    try (HDiskCache cache = new HDiskCache(path, 12000)) {
+      Assert.assertNull(cache.openInput(file, IOContext.DEFAULT));
+      Assert.assertFalse(cache.contains(1));
+      Assert.assertFalse(Files.exists(path.resolve("1")));
+    }
+  }
+
+  @Test
+  public void evictionTest() throws Exception {
+    try (HDiskCache cache = new HDiskCache(path, 12000)) {
+      for (int i = 1; i <= 3; i++) {
+        byte[] data = random(5000);
+        cache.load(snapshot(i, data), out -> out.write(data));
+        await(cache);
+      }
+      // the least recently used copy is evicted
+      Assert.assertFalse(cache.contains(1));
+      Assert.assertTrue(cache.contains(2));
+      Assert.assertTrue(cache.contains(3));
+      Assert.assertEquals(10000, cache.getBytes());
+      cache.invalidate(3);
+      Assert.assertEquals(5000, cache.getBytes());
+      Assert.assertFalse(Files.exists(path.resolve("3")));
+    }
+  }
+
+  @Test
+  public void invalidateWhileLoadingTest() throws Exception {
+    byte[] data = random(5000);
+    CountDownLatch written = new CountDownLatch(1);
+    try (HDiskCache cache = new HDiskCache(path, 12000)) {
+      cache.load(snapshot(1, data), out -> {
+        try {
+          written.await();
+        } catch (InterruptedException ex) {
+          throw new InterruptedIOException();
+        }
+        out.write(data);
+      });
+      cache.invalidate(1);
+      written.countDown();
+      await(cache);
+      Assert.assertFalse(cache.contains(1));
+      Assert.assertEquals(0, cache.getBytes());
+      Assert.assertFalse(Files.exists(path.resolve("1")));
+      // the invalidation does not outlive the copy it was recorded for
+      cache.load(snapshot(1, data), out -> out.write(data));
+      await(cache);
+      Assert.assertTrue(cache.contains(1));
+    }
+  }
+
+  @Test
+  public void lockTest() throws Exception {
+    // a second cache on a directory in use keeps its copies apart
+    try (HDiskCache first = new HDiskCache(path, 12000);
+        HDiskCache second = new HDiskCache(path, 12000)) {
+      Assert.assertEquals(path, first.getPath());
+      Assert.assertEquals(path.resolve("instance-1"), second.getPath());
+      byte[] data = random(5000);
+      second.load(snapshot(1, data), out -> out.write(data));
+      await(second);
+      Assert.assertFalse(first.contains(1));
+      Assert.assertEquals(0, first.getBytes());
+    }
+  }
+
+  @Test
+  public void directoryTest() throws Exception {
+    HazelcastDirectoryConfig config = newConfig();
+    config.setCompression("tim", HCompression.FAST);
+    config.setDiskCachePath(path);
+    config.setDiskCacheSize(12000);
+    HazelcastDirectory directory = newDirectory("disk", config);
+    byte[] data = write(directory, "_0.tim", 5000);
+    Assert.assertArrayEquals(data, read(directory, "_0.tim"));
+    await(directory.diskCache);
+    Assert.assertEquals(path.resolve("disk"), directory.diskCache.getPath());
+    Assert.assertArrayEquals(data, read(directory, "_0.tim"));
+    Assert.assertEquals(1, directory.getMetrics().getDiskCacheHits());
+    Assert.assertEquals(data.length, directory.getMetrics().getDiskCacheBytes());
+    // deleted files are invalidated
+    directory.deleteFile("_0.tim");
+    Assert.assertEquals(0, directory.getMetrics().getDiskCacheBytes());
+  }
+}
@@ -0,0 +1,45 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import org.apache.lucene.store.IOContext;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+/**
+ * HFileCopier tests.
+ */
+public class HFileCopierTest extends DirectoryTestSupport {
+
+  private HazelcastDirectory source;
+  private HazelcastDirectory copy;
+
+  @Before
+  public void setup() {
+    source = newDirectory("test", newConfig());
+    copy = newDirectory("copy", newConfig());
+  }
+
+  @Test
+  public void copyBlocksTest() throws IOException {
+    byte[] data = write(source, "_0.tim", 10000);
+    copy.copyFrom(source, "_0.tim", "_1.tim", IOContext.DEFAULT);
+    HFile file = copy.getFile("_1.tim");
+    for (int i = 0; i < file.numBlocks(); i++) {
+      Assert.assertTrue(copy.blocks.containsKey(new HBlockKey(file.getFileId(), i)));
+    }
+    // the copy does not depend on the source
+    source.deleteFile("_0.tim");
+    Assert.assertArrayEquals(data, read(copy, "_1.tim"));
+    Assert.assertEquals(data.length, copy.sizeInBytes());
+  }
+
+  @Test
+  public void copyInlineTest() throws IOException {
+    byte[] data = write(source, "_0.si", 200);
+    copy.copyFrom(source, "_0.si", "_1.si", IOContext.DEFAULT);
+    Assert.assertTrue(copy.getFile("_1.si").isInline());
+    Assert.assertArrayEquals(data, read(copy, "_1.si"));
+  }
+}
@@ -0,0 +1,142 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.SingleInstanceLockFactory;
+import org.apache.lucene.util.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * HFileStore and HBlockStore tests, restarting a member persisting an index.
+ */
+public class HFileStoreTest {
+
+  private Path path;
+  private HazelcastInstance member;
+
+  @Before
+  public void setup() throws IOException {
+    path = Files.createTempDirectory("persistence");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (member != null) {
+      member.shutdown();
+    }
+    IOUtils.rm(path);
+  }
+
+  private Config newConfig() {
+    Config config = DirectoryTestSupport.newMemberConfig();
+    config.addMapConfig(new MapConfig("persisted").setMapStoreConfig(
+        HMapStore.newConfig(HFileStore.class, path, 1, false)));
+    config.addMapConfig(new MapConfig("persisted-blocks").setMapStoreConfig(
+        HMapStore.newConfig(HBlockStore.class, path, 1, false)));
+    return config;
+  }
+
+  private HazelcastDirectory restart() {
+    if (member != null) {
+      // shutting down writes the changes still behind
+      member.shutdown();
+    }
+    member = Hazelcast.newHazelcastInstance(newConfig());
+    return new HazelcastDirectory(member, null, "persisted", new SingleInstanceLockFactory(),
+        DirectoryTestSupport.newConfig());
+  }
+
+  private static void index(HazelcastDirectory directory, int docs) throws IOException {
+    try (IndexWriter indexWriter = new IndexWriter(directory,
+        new IndexWriterConfig(new StandardAnalyzer()))) {
+      for (int i = 0; i < docs; i++) {
+        Document doc = new Document();
+        doc.add(new StringField("id", Integer.toString(i), Field.Store.YES));
+        indexWriter.addDocument(doc);
+      }
+    }
+  }
+
+  @Test
+  public void commitTest() throws IOException {
+    HazelcastDirectory directory = restart();
+    index(directory, 100);
+    directory.close();
+    directory = restart();
+    try (DirectoryReader reader = DirectoryReader.open(directory)) {
+      Assert.assertEquals(100, reader.numDocs());
+    }
+    Assert.assertTrue(directory.sizeInBytes() > 0);
+    directory.close();
+  }
+
+  @Test
+  public void uncommittedTest() throws IOException {
+    HazelcastDirectory directory = restart();
+    index(directory, 10);
+    byte[] data = DirectoryTestSupport.write(directory, "custom.dat", 2500);
+    // an index file written after the commit, so not loaded
+    DirectoryTestSupport.write(directory, "_9.tim", 2500);
+    directory.sync(Arrays.asList("custom.dat", "_9.tim"));
+    long uncommitted = directory.getFile("_9.tim").getFileId();
+    directory.close();
+    directory = restart();
+    List<String> names = Arrays.asList(directory.listAll());
+    Assert.assertTrue(names.contains("custom.dat"));
+    Assert.assertFalse(names.contains("_9.tim"));
+    Assert.assertFalse(directory.blocks.containsKey(new HBlockKey(uncommitted, 0)));
+    Assert.assertArrayEquals(data, DirectoryTestSupport.read(directory, "custom.dat"));
+    directory.close();
+  }
+
+  @Test
+  public void fileIdsTest() throws IOException {
+    HazelcastDirectory directory = restart();
+    index(directory, 10);
+    DirectoryTestSupport.write(directory, "custom.dat", 2500);
+    directory.close();
+    directory = restart();
+    // file ids are not reused
+    DirectoryTestSupport.write(directory, "_a.tim", 200);
+    Assert.assertTrue(directory.getFile("_a.tim").getFileId()
+        > directory.getFile("custom.dat").getFileId());
+    directory.close();
+  }
+
+  @Test
+  public void sharedPathTest() throws IOException {
+    HazelcastDirectory directory = restart();
+    byte[] data = DirectoryTestSupport.write(directory, "custom.dat", 2500);
+    // another member must not write the files in use
+    HazelcastInstance other = Hazelcast.newHazelcastInstance(newConfig());
+    try {
+      other.getMap("persisted").get("custom.dat");
+      Assert.fail();
+    } catch (UncheckedIOException ex) {
+      Assert.assertTrue(ex.getCause().getMessage().contains("in use"));
+    } finally {
+      other.shutdown();
+    }
+    Assert.assertArrayEquals(data, DirectoryTestSupport.read(directory, "custom.dat"));
+    directory.close();
+  }
+}
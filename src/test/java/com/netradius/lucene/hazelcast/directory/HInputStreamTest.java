@@ -0,0 +1,133 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RandomAccessInput;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * HInputStream tests.
+ */
+public class HInputStreamTest extends DirectoryTestSupport {
+
+  private HazelcastDirectory directory;
+
+  @Before
+  public void setup() {
+    directory = newDirectory("test", newConfig());
+  }
+
+  @Test
+  public void seekAndSliceTest() throws IOException {
+    byte[] data = write(directory, "_0.tim", 10000);
+    try (IndexInput in = directory.openInput("_0.tim", IOContext.DEFAULT)) {
+      in.seek(5000);
+      Assert.assertEquals(data[5000], in.readByte());
+      IndexInput slice = in.slice("slice", 3000, 4000);
+      Assert.assertEquals(4000, slice.length());
+      slice.seek(1000);
+      Assert.assertEquals(data[4000], slice.readByte());
+      Assert.assertEquals(5001, in.getFilePointer());
+    }
+  }
+
+  @Test
+  public void primitivesTest() throws IOException {
+    try (IndexOutput out = directory.createOutput("_0.tim", IOContext.DEFAULT)) {
+      // enough values to cross several blocks at varying offsets
+      for (int i = 0; i < 1000; i++) {
+        out.writeShort((short) (i * 31));
+        out.writeInt(i * 1000003);
+        out.writeLong(i * 1000000007L);
+        out.writeVInt(i % 2 == 0 ? i << 20 : -i);
+        out.writeVLong((long) i << 40);
+      }
+    }
+    try (IndexInput in = directory.openInput("_0.tim", IOContext.DEFAULT)) {
+      long[] positions = new long[1000];
+      for (int i = 0; i < 1000; i++) {
+        positions[i] = in.getFilePointer();
+        Assert.assertEquals((short) (i * 31), in.readShort());
+        Assert.assertEquals(i * 1000003, in.readInt());
+        Assert.assertEquals(i * 1000000007L, in.readLong());
+        Assert.assertEquals(i % 2 == 0 ? i << 20 : -i, in.readVInt());
+        Assert.assertEquals((long) i << 40, in.readVLong());
+      }
+      in.seek(positions[500]);
+      RandomAccessInput random = in.randomAccessSlice(positions[10],
+          in.length() - positions[10]);
+      for (int i = 999; i >= 10; i--) {
+        long pos = positions[i] - positions[10];
+        Assert.assertEquals((short) (i * 31), random.readShort(pos));
+        Assert.assertEquals(i * 1000003, random.readInt(pos + 2));
+        Assert.assertEquals(i * 1000000007L, random.readLong(pos + 6));
+        Assert.assertEquals((byte) (i * 1000000007L), random.readByte(pos + 13));
+      }
+      // random access does not move the file pointer
+      Assert.assertEquals(positions[500], in.getFilePointer());
+    }
+  }
+
+  @Test
+  public void cloneTest() throws Exception {
+    byte[] data = write(directory, "_0.tim", 5000);
+    try (IndexInput in = directory.openInput("_0.tim", IOContext.DEFAULT)) {
+      in.readByte();
+      IndexInput clone = in.clone();
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+        // both stay within the first block, sharing it if the clone does not copy the buffer
+        CountDownLatch start = new CountDownLatch(2);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (IndexInput input : Arrays.asList(in, clone)) {
+          results.add(executor.submit(() -> {
+            Random random = new Random();
+            byte[] read = new byte[10];
+            start.countDown();
+            start.await();
+            for (int i = 0; i < 1000000; i++) {
+              int pos = random.nextInt(990);
+              input.seek(pos);
+              input.readBytes(read, 0, read.length);
+              if (!Arrays.equals(Arrays.copyOfRange(data, pos, pos + read.length), read)) {
+                return false;
+              }
+            }
+            return true;
+          }));
+        }
+        for (Future<Boolean> result : results) {
+          Assert.assertTrue(result.get());
+        }
+      } finally {
+        executor.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void readAheadTest() throws IOException {
+    byte[] data = write(directory, "_0.dvd", 20000);
+    try (IndexInput in = directory.openInput("_0.dvd", IOContext.READONCE)) {
+      byte[] read = new byte[data.length];
+      for (int i = 0; i < read.length; i++) {
+        read[i] = in.readByte();
+      }
+      Assert.assertArrayEquals(data, read);
+    }
+    Assert.assertTrue(directory.metrics.getReadAheadHits() > 0);
+  }
+}
@@ -0,0 +1,86 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import org.apache.lucene.store.FlushInfo;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * HNrtBuffer tests.
+ */
+public class HNrtBufferTest extends DirectoryTestSupport {
+
+  private HazelcastDirectory directory;
+
+  @Before
+  public void setup() {
+    HazelcastDirectoryConfig config = newConfig();
+    config.setNrtMaxFileSize(3000);
+    directory = newDirectory("nrt", config);
+  }
+
+  private boolean isStored(HFile file, int index) {
+    return directory.blocks.containsKey(new HBlockKey(file.getFileId(), index));
+  }
+
+  @Test
+  public void discardTest() throws IOException {
+    try (IndexOutput out = directory.createOutput("_0.tim", IOContext.DEFAULT)) {
+      Assert.assertEquals(Arrays.asList("_0.tim"), Arrays.asList(directory.listAll()));
+      out.writeBytes(new byte[2500], 2500);
+    }
+    // the full blocks, the last one is kept by the output
+    Assert.assertEquals(2000, directory.getMetrics().getNrtBufferedBytes());
+    Assert.assertArrayEquals(new byte[2500], read(directory, "_0.tim"));
+    directory.deleteFile("_0.tim");
+    Assert.assertEquals(0, directory.listAll().length);
+    Assert.assertEquals(1, directory.getMetrics().getNrtDiscardedFiles());
+    Assert.assertEquals(0, directory.getMetrics().getNrtBufferedBytes());
+    Assert.assertFalse(directory.store.containsKey("_0.tim"));
+  }
+
+  @Test
+  public void syncTest() throws IOException {
+    byte[] data = write(directory, "_0.tim", 2500);
+    Assert.assertArrayEquals(data, read(directory, "_0.tim"));
+    Assert.assertFalse(directory.store.containsKey("_0.tim"));
+    directory.sync(Collections.singleton("_0.tim"));
+    HFile file = directory.getFile("_0.tim");
+    Assert.assertEquals(0, directory.getMetrics().getNrtBufferedBytes());
+    for (int i = 0; i < file.numBlocks(); i++) {
+      Assert.assertTrue(isStored(file, i));
+    }
+    Assert.assertEquals(2500, directory.sizeInBytes());
+    Assert.assertArrayEquals(data, read(directory, "_0.tim"));
+  }
+
+  @Test
+  public void maxFileSizeTest() throws IOException {
+    // stored as it is written once it grows past the maximum size
+    byte[] data = write(directory, "_0.tim", 5000);
+    HFile file = directory.getFile("_0.tim");
+    Assert.assertTrue(isStored(file, 0));
+    Assert.assertEquals(0, directory.getMetrics().getNrtBufferedBytes());
+    Assert.assertArrayEquals(data, read(directory, "_0.tim"));
+  }
+
+  @Test
+  public void emptyFileTest() throws IOException {
+    directory.createOutput("_0.si", IOContext.DEFAULT).close();
+    directory.sync(Collections.singleton("_0.si"));
+    Assert.assertEquals(0, directory.getFile("_0.si").getLength());
+  }
+
+  @Test
+  public void largeFlushTest() throws IOException {
+    // not buffered when the flush is expected to exceed the maximum size
+    directory.createOutput("_0.tim", new IOContext(new FlushInfo(10, 10000))).close();
+    Assert.assertTrue(directory.store.containsKey("_0.tim"));
+  }
+}
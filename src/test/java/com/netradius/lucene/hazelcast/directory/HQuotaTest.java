@@ -0,0 +1,95 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import org.apache.lucene.store.IOContext;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HQuota tests.
+ */
+public class HQuotaTest extends DirectoryTestSupport {
+
+  private HazelcastDirectoryConfig config;
+  private HazelcastDirectory directory;
+
+  @Before
+  public void setup() {
+    config = newConfig();
+    config.setQuota(10000);
+    config.setQuotaSoftLimit(0.5);
+    directory = newDirectory("quota", config);
+  }
+
+  @Test
+  public void softLimitTest() throws IOException {
+    List<Long> warnings = new ArrayList<>();
+    directory.addQuotaListener((indexName, size, limit) -> warnings.add(size));
+    write(directory, "_0.fdt", 4000);
+    write(directory, "_1.fdt", 2000);
+    Assert.assertEquals(6000, directory.sizeInBytes());
+    Assert.assertEquals(Collections.emptyList(), warnings);
+    Assert.assertEquals(0, directory.getMetrics().getQuotaThrottles());
+    // past the soft limit files are still created, but writes are throttled
+    write(directory, "_2.fdt", 1000);
+    Assert.assertEquals(Collections.singletonList(6000L), warnings);
+    Assert.assertTrue(directory.getMetrics().getQuotaThrottles() > 0);
+  }
+
+  @Test
+  public void hardLimitTest() throws IOException {
+    write(directory, "_0.fdt", 6000);
+    write(directory, "_1.fdt", 4500);
+    Assert.assertEquals(10500, directory.sizeInBytes());
+    try {
+      directory.createOutput("_2.fdt", IOContext.DEFAULT);
+      Assert.fail("Quota exceeded");
+    } catch (IOException ex) {
+      // expected
+    }
+    Assert.assertEquals(1, directory.getMetrics().getQuotaRejections());
+    Assert.assertFalse(Arrays.asList(directory.listAll()).contains("_2.fdt"));
+  }
+
+  @Test
+  public void copyTest() throws IOException {
+    HazelcastDirectory source = newDirectory("source", newConfig());
+    write(source, "_0.fdt", 4000);
+    write(directory, "_0.fdt", 10500);
+    Assert.assertEquals(10500, directory.sizeInBytes());
+    try {
+      directory.copyFrom(source, "_0.fdt", "_1.fdt", IOContext.DEFAULT);
+      Assert.fail("Quota exceeded");
+    } catch (IOException ex) {
+      // expected
+    }
+    Assert.assertEquals(1, directory.getMetrics().getQuotaRejections());
+    Assert.assertEquals(10500, directory.sizeInBytes());
+  }
+
+  @Test
+  public void clusterWideTest() throws IOException {
+    write(directory, "_0.fdt", 4000);
+    write(directory, "_1.fdt", 2000);
+    directory.sync(Arrays.asList("_0.fdt", "_1.fdt"));
+    HazelcastDirectory other = newDirectory("quota", config);
+    Assert.assertEquals(6000, other.sizeInBytes());
+    other.deleteFile("_1.fdt");
+    Assert.assertEquals(4000, directory.sizeInBytes());
+  }
+
+  @Test
+  public void recountTest() throws IOException {
+    write(directory, "_0.fdt", 4000);
+    directory.sync(Collections.singleton("_0.fdt"));
+    directory.quota.sizeInBytes.set(0);
+    Assert.assertEquals(4000, directory.recountSize());
+    Assert.assertEquals(4000, directory.sizeInBytes());
+  }
+}
@@ -0,0 +1,129 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import org.apache.lucene.util.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HStoreLog tests.
+ */
+public class HStoreLogTest {
+
+  private Path dir;
+  private Path path;
+
+  @Before
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("store-log");
+    path = dir.resolve("0.log");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    IOUtils.rm(dir);
+  }
+
+  private static ByteBuffer key(String key) {
+    return ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static Map<ByteBuffer, byte[]> record(String key, byte[] value) {
+    Map<ByteBuffer, byte[]> records = new HashMap<>();
+    records.put(key(key), value);
+    return records;
+  }
+
+  @Test
+  public void appendAndGetTest() throws IOException {
+    try (HStoreLog log = new HStoreLog(path, true)) {
+      log.append(record("a", new byte[] {1}));
+      log.append(record("b", new byte[] {2}));
+      log.append(record("a", new byte[] {3, 4}));
+      Assert.assertArrayEquals(new byte[] {3, 4}, log.get(key("a")));
+      Assert.assertArrayEquals(new byte[] {2}, log.get(key("b")));
+      Assert.assertNull(log.get(key("c")));
+      log.append(record("b", null));
+      Assert.assertFalse(log.contains(key("b")));
+      Assert.assertEquals(Collections.singletonList(key("a")), log.keys());
+    }
+  }
+
+  @Test
+  public void reopenTest() throws IOException {
+    try (HStoreLog log = new HStoreLog(path, true)) {
+      log.append(record("a", new byte[] {1}));
+      log.append(record("b", new byte[] {2}));
+      log.append(record("b", null));
+    }
+    try (HStoreLog log = new HStoreLog(path, false)) {
+      Assert.assertArrayEquals(new byte[] {1}, log.get(key("a")));
+      Assert.assertFalse(log.contains(key("b")));
+    }
+  }
+
+  @Test
+  public void truncatedTest() throws IOException {
+    try (HStoreLog log = new HStoreLog(path, true)) {
+      log.append(record("a", new byte[] {1}));
+    }
+    long size = Files.size(path);
+    // a record cut short by a crash
+    Files.write(path, new byte[] {0, 0, 0, 1, 0, 0}, StandardOpenOption.APPEND);
+    try (HStoreLog log = new HStoreLog(path, true)) {
+      Assert.assertEquals(size, Files.size(path));
+      Assert.assertArrayEquals(new byte[] {1}, log.get(key("a")));
+      log.append(record("b", new byte[] {2}));
+      Assert.assertArrayEquals(new byte[] {2}, log.get(key("b")));
+    }
+  }
+
+  @Test
+  public void corruptTest() throws IOException {
+    try (HStoreLog log = new HStoreLog(path, true)) {
+      log.append(record("a", new byte[] {1}));
+    }
+    byte[] bytes = Files.readAllBytes(path);
+    bytes[bytes.length - 1] ^= 1;
+    Files.write(path, bytes);
+    try (HStoreLog log = new HStoreLog(path, false)) {
+      log.get(key("a"));
+      Assert.fail("Corrupt record read");
+    } catch (IOException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void refreshTest() throws IOException {
+    // records appended by another member owning the partition in between are picked up
+    try (HStoreLog first = new HStoreLog(path, true);
+        HStoreLog second = new HStoreLog(path, true)) {
+      first.append(record("a", new byte[] {1}));
+      Assert.assertArrayEquals(new byte[] {1}, second.get(key("a")));
+      second.append(record("b", new byte[] {2}));
+      Assert.assertArrayEquals(new byte[] {2}, first.get(key("b")));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void readOnlyTest() throws IOException {
+    try (HStoreLog log = new HStoreLog(path, true)) {
+      log.append(record("a", new byte[] {1}));
+    }
+    try (HStoreLog log = new HStoreLog(path, false)) {
+      log.append(record("b", new byte[] {2}));
+    }
+  }
+}
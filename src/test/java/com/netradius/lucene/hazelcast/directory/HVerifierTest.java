@@ -0,0 +1,66 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * HVerifier tests.
+ */
+public class HVerifierTest extends DirectoryTestSupport {
+
+  private HazelcastDirectory directory;
+
+  @Before
+  public void setup() throws IOException {
+    HazelcastDirectoryConfig config = newConfig();
+    config.setCompression("nvd", HCompression.FAST);
+    directory = newDirectory("test", config);
+    write(directory, "_0.nvd", 5000);
+    write(directory, "_0.tim", 5000);
+    write(directory, "_0.si", 200);
+  }
+
+  @Test
+  public void intactTest() throws IOException {
+    Assert.assertEquals(Arrays.asList(true, true, true),
+        new ArrayList<>(directory.verify(null).values()));
+  }
+
+  @Test
+  public void blockChecksumsTest() throws IOException {
+    directory.sync(Collections.singleton("_0.nvd"));
+    // block checksums are kept in the block table rather than the metadata
+    HFile file = directory.getFile("_0.nvd");
+    Assert.assertFalse(file.isBlockTableLoaded());
+    directory.loadBlockTable(file);
+    Assert.assertTrue(file.hasBlockChecksums());
+  }
+
+  @Test
+  public void corruptTest() throws IOException {
+    long nvd = directory.getFile("_0.nvd").getFileId();
+    directory.verify(null);
+    directory.blocks.put(new HBlockKey(nvd, 2), new byte[] {1, 2, 3});
+    Map<String, Boolean> results = directory.verify(Arrays.asList("_0.nvd", "_0.tim"));
+    Assert.assertFalse(results.get("_0.nvd"));
+    Assert.assertTrue(results.get("_0.tim"));
+  }
+
+  @Test
+  public void missingTest() throws IOException {
+    long tim = directory.getFile("_0.tim").getFileId();
+    directory.verify(null);
+    directory.blocks.delete(new HBlockKey(tim, 4));
+    Map<String, Boolean> results = directory.verify(Arrays.asList("_0.tim", "_0.si", "_1.si"));
+    Assert.assertFalse(results.get("_0.tim"));
+    Assert.assertTrue(results.get("_0.si"));
+    Assert.assertFalse(results.get("_1.si"));
+  }
+}
@@ -0,0 +1,303 @@
+package com.netradius.lucene.hazelcast.directory;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.SingleInstanceLockFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * HazelcastDirectory file operation tests.
+ */
+public class HazelcastDirectoryTest extends DirectoryTestSupport {
+
+  private HazelcastDirectory directory;
+
+  @Before
+  public void setup() {
+    HazelcastDirectoryConfig config = newConfig();
+    config.setBlockSize("fdt", 4096);
+    directory = newDirectory("test", config);
+  }
+
+  @Test
+  public void writeAndReadTest() throws IOException {
+    byte[] data = write(directory, "_0.fdt", 10000);
+    Assert.assertEquals(data.length, directory.fileLength("_0.fdt"));
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    Assert.assertEquals(crc.getValue(), directory.getFile("_0.fdt").getChecksum());
+    Assert.assertArrayEquals(data, read(directory, "_0.fdt"));
+  }
+
+  @Test
+  public void blockSizeTest() throws IOException {
+    write(directory, "_0.fdt", 10000);
+    write(directory, "_0.tim", 10000);
+    write(directory, "segments_1", 10000);
+    Assert.assertEquals(4096, directory.getFile("_0.fdt").getBlockSize());
+    Assert.assertEquals(3, directory.getFile("_0.fdt").numBlocks());
+    Assert.assertEquals(1000, directory.getFile("_0.tim").getBlockSize());
+    Assert.assertEquals(1024, directory.getFile("segments_1").getBlockSize());
+  }
+
+  @Test
+  public void inlineTest() throws IOException {
+    byte[] data = write(directory, "_0.si", 500);
+    HFile file = directory.getFile("_0.si");
+    Assert.assertTrue(file.isInline());
+    Assert.assertFalse(directory.blocks.containsKey(file.blockTableKey()));
+    Assert.assertFalse(directory.blocks.containsKey(new HBlockKey(file.getFileId(), 0)));
+    Assert.assertArrayEquals(data, read(directory, "_0.si"));
+  }
+
+  @Test
+  public void legacyFormatTest() throws IOException {
+    byte[] data = new byte[2500];
+    new Random(2500).nextBytes(data);
+    LegacyHFile file = new LegacyHFile();
+    for (int i = 0; i < data.length; i += 1024) {
+      byte[] buffer = file.addBuffer(1024);
+      System.arraycopy(data, i, buffer, 0, Math.min(1024, data.length - i));
+    }
+    file.setLength(data.length);
+    directory.store.set("_0.cfs", file);
+    Assert.assertEquals(data.length, directory.fileLength("_0.cfs"));
+    Assert.assertArrayEquals(data, read(directory, "_0.cfs"));
+    directory.renameFile("_0.cfs", "_1.cfs");
+    Assert.assertArrayEquals(data, read(directory, "_1.cfs"));
+  }
+
+  @Test
+  public void renameAndDeleteTest() throws IOException {
+    byte[] data = write(directory, "pending_segments_1", 3000);
+    directory.renameFile("pending_segments_1", "segments_1");
+    Assert.assertEquals(Arrays.asList("segments_1"), Arrays.asList(directory.listAll()));
+    Assert.assertArrayEquals(data, read(directory, "segments_1"));
+    HFile file = directory.getFile("segments_1");
+    directory.deleteFile("segments_1");
+    Assert.assertEquals(0, directory.listAll().length);
+    Assert.assertFalse(directory.blocks.containsKey(file.blockTableKey()));
+    Assert.assertFalse(directory.blocks.containsKey(new HBlockKey(file.getFileId(), 0)));
+    try {
+      directory.openInput("segments_1", IOContext.DEFAULT);
+      Assert.fail("Deleted file opened");
+    } catch (FileNotFoundException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void syncPublishesTest() throws IOException {
+    byte[] data = write(directory, "_0.tim", 5000);
+    byte[] small = write(directory, "_0.si", 200);
+    // listed and readable by the writer, but not in the metadata map yet
+    Assert.assertEquals(0, directory.store.get("_0.tim").getLength());
+    Assert.assertEquals(0, directory.store.get("_0.si").getLength());
+    Assert.assertEquals(data.length, directory.fileLength("_0.tim"));
+    Assert.assertEquals(2, directory.listAll().length);
+    directory.sync(Arrays.asList("_0.tim", "_0.si"));
+    Assert.assertEquals(data.length, directory.store.get("_0.tim").getLength());
+    Assert.assertArrayEquals(data, read(directory, "_0.tim"));
+    Assert.assertArrayEquals(small, read(directory, "_0.si"));
+  }
+
+  @Test
+  public void deleteUnsyncedTest() throws IOException {
+    write(directory, "_0.tim", 5000);
+    HFile file = directory.getFile("_0.tim");
+    directory.deleteFile("_0.tim");
+    Assert.assertEquals(0, directory.listAll().length);
+    Assert.assertFalse(directory.store.containsKey("_0.tim"));
+    for (int i = 0; i < file.numBlocks(); i++) {
+      Assert.assertFalse(directory.blocks.containsKey(new HBlockKey(file.getFileId(), i)));
+    }
+  }
+
+  @Test
+  public void localReadsTest() throws IOException {
+    HazelcastDirectoryConfig config = new HazelcastDirectoryConfig();
+    config.setLocalReads(true);
+    HazelcastDirectory local = newDirectory("local", config);
+    byte[] data = write(local, "_0.tim", 100000);
+    try (IndexInput in = local.openInput("_0.tim", IOContext.READONCE)) {
+      byte[] read = new byte[data.length];
+      in.readBytes(read, 0, read.length);
+      Assert.assertArrayEquals(data, read);
+    }
+    // a single member owns every block
+    Assert.assertEquals(local.getFile("_0.tim").numBlocks(), local.metrics.getLocalReads());
+    Assert.assertEquals(0, local.getBlockCache().ramBytesUsed());
+    Assert.assertEquals(0, local.metrics.getReadAheadFetches());
+  }
+
+  @Test
+  public void backupReadsTest() throws Exception {
+    List<HazelcastInstance> members = new ArrayList<>();
+    List<HazelcastDirectory> directories = new ArrayList<>();
+    try {
+      for (int i = 0; i < 2; i++) {
+        Config memberConfig = newMemberConfig();
+        memberConfig.getGroupConfig().setName("backups");
+        memberConfig.getNetworkConfig().getJoin().getTcpIpConfig().setEnabled(true)
+            .addMember("127.0.0.1");
+        memberConfig.addMapConfig(new MapConfig("*" + HBlockStore.MAP_SUFFIX)
+            .setReadBackupData(true));
+        members.add(Hazelcast.newHazelcastInstance(memberConfig));
+      }
+      for (int i = 0; i < 1000 && !members.get(1).getPartitionService().isClusterSafe(); i++) {
+        Thread.sleep(10);
+      }
+      HazelcastDirectoryConfig config = newConfig();
+      config.setLocalReads(true);
+      for (HazelcastInstance member : members) {
+        directories.add(new HazelcastDirectory(member, null, "backups",
+            new SingleInstanceLockFactory(), config));
+      }
+      byte[] data = write(directories.get(0), "_0.tim", 100000);
+      // each member owns or holds a backup of every block
+      for (HazelcastDirectory directory : directories) {
+        Assert.assertArrayEquals(data, read(directory, "_0.tim"));
+        Assert.assertEquals(directory.getFile("_0.tim").numBlocks(),
+            directory.metrics.getLocalReads());
+        Assert.assertEquals(0, directory.getBlockCache().ramBytesUsed());
+      }
+    } finally {
+      for (HazelcastDirectory directory : directories) {
+        directory.close();
+      }
+      for (HazelcastInstance member : members) {
+        member.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void metricsTest() throws Exception {
+    byte[] data = write(directory, "_0.tim", 5000);
+    directory.sync(Arrays.asList("_0.tim"));
+    int numBlocks = directory.getFile("_0.tim").numBlocks();
+    Assert.assertArrayEquals(data, read(directory, "_0.tim"));
+    directory.renameFile("_0.tim", "_1.tim");
+    directory.deleteFile("_1.tim");
+    HDirectoryMetrics metrics = directory.getMetrics();
+    Assert.assertEquals(1, metrics.getOpenInputLatency().getCount());
+    Assert.assertEquals(1, metrics.getCreateOutputLatency().getCount());
+    Assert.assertEquals(1, metrics.getRenameLatency().getCount());
+    Assert.assertEquals(1, metrics.getDeleteLatency().getCount());
+    Assert.assertEquals(numBlocks, metrics.getBlockWrites());
+    Assert.assertEquals(numBlocks, metrics.getBlockFetches());
+    Assert.assertEquals(Long.valueOf(5000), metrics.getBytesReadByType().get("tim"));
+    Assert.assertEquals(Long.valueOf(5000), metrics.getBytesWrittenByType().get("tim"));
+  }
+
+  @Test
+  public void metricsMBeanTest() throws Exception {
+    write(directory, "_0.tim", 5000);
+    read(directory, "_0.tim");
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("com.netradius.lucene.hazelcast:type=test");
+    server.registerMBean(directory.getMetrics(), name);
+    try {
+      CompositeData latency = (CompositeData) server.getAttribute(name, "OpenInputLatency");
+      Assert.assertEquals(1L, latency.get("count"));
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+
+  @Test
+  public void commitEventsTest() throws Exception {
+    HazelcastDirectoryConfig config = new HazelcastDirectoryConfig();
+    config.setCommitEvents(true);
+    HazelcastDirectory writer = newDirectory("events", config);
+    HazelcastDirectory reader = newDirectory("events", config);
+    BlockingQueue<HCommitEvent> events = new LinkedBlockingQueue<>();
+    String registration = reader.addCommitListener(events::add);
+    Document doc = new Document();
+    doc.add(new StringField("id", "1", Field.Store.YES));
+    try (IndexWriter indexWriter = new IndexWriter(writer,
+        new IndexWriterConfig(new StandardAnalyzer()))) {
+      indexWriter.addDocument(doc);
+      indexWriter.commit();
+      HCommitEvent first = events.poll(10, TimeUnit.SECONDS);
+      Assert.assertNotNull(first);
+      Assert.assertEquals("events", first.getIndexName());
+      Assert.assertEquals("segments_1", first.getSegmentsFileName());
+      Assert.assertEquals(1, first.getGeneration());
+      Assert.assertTrue(first.getNewFiles().size() > 1);
+      for (String name : first.getNewFiles().keySet()) {
+        Assert.assertEquals(reader.fileLength(name), (long) first.getNewFiles().get(name));
+      }
+      indexWriter.addDocument(doc);
+      indexWriter.commit();
+      HCommitEvent second = events.poll(10, TimeUnit.SECONDS);
+      Assert.assertNotNull(second);
+      Assert.assertEquals(2, second.getGeneration());
+      Assert.assertTrue(second.getNewFiles().containsKey("segments_2"));
+      for (String name : second.getNewFiles().keySet()) {
+        // only the files of the new segment and the commit point itself
+        Assert.assertFalse(name, first.getNewFiles().containsKey(name));
+      }
+    }
+    Assert.assertTrue(reader.removeCommitListener(registration));
+  }
+
+  @Test
+  public void warmUpTest() throws IOException {
+    Assert.assertEquals(0, directory.warmUp(null));
+    try (IndexWriter indexWriter = new IndexWriter(directory,
+        new IndexWriterConfig(new StandardAnalyzer()).setUseCompoundFile(false))) {
+      for (int i = 0; i < 1000; i++) {
+        Document doc = new Document();
+        doc.add(new StringField("id", Integer.toString(i), Field.Store.YES));
+        indexWriter.addDocument(doc);
+      }
+    }
+    HazelcastDirectory cold = newDirectory("test", newConfig());
+    String fdt = null;
+    for (String name : cold.listAll()) {
+      if (name.endsWith(".fdt")) {
+        fdt = name;
+      }
+    }
+    Assert.assertNotNull(fdt);
+    Assert.assertEquals(cold.fileLength(fdt), cold.warmUp(Collections.singleton("fdt")));
+    long fetches = cold.getMetrics().getBlockFetches();
+    try (IndexInput in = cold.openInput(fdt, IOContext.DEFAULT)) {
+      in.seek(in.length() - 1);
+      in.readByte();
+    }
+    Assert.assertEquals(fetches, cold.getMetrics().getBlockFetches());
+    // cached blocks are not fetched again
+    Assert.assertEquals(0, cold.warmUp(Collections.singleton("fdt")));
+    Assert.assertTrue(cold.warmUp(null) > 0);
+  }
+}
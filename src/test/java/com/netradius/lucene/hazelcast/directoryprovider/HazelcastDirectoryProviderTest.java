@@ -0,0 +1,66 @@
+package com.netradius.lucene.hazelcast.directoryprovider;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.netradius.lucene.hazelcast.directory.HFileStore;
+import org.apache.lucene.util.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * HazelcastDirectoryProvider tests.
+ */
+public class HazelcastDirectoryProviderTest {
+
+  private Path path;
+  private HazelcastInstance member;
+  private HazelcastDirectoryProvider provider;
+
+  @Before
+  public void setup() throws IOException {
+    path = Files.createTempDirectory("persistence");
+    Config config = new Config();
+    config.getNetworkConfig().getJoin().getMulticastConfig().setEnabled(false);
+    config.addMapConfig(new MapConfig("configured"));
+    member = Hazelcast.newHazelcastInstance(config);
+    provider = new HazelcastDirectoryProvider();
+    provider.hazelcastInstance = member;
+    provider.indexName = "test";
+    provider.persistencePath = path;
+    provider.persistenceWriteDelay = HazelcastDirectoryProvider.DEFAULT_PERSISTENCE_WRITE_DELAY;
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    member.shutdown();
+    IOUtils.rm(path);
+  }
+
+  @Test
+  public void configurePersistenceTest() {
+    provider.configurePersistence("test");
+    Assert.assertEquals(HFileStore.class.getName(),
+        member.getConfig().getMapConfig("test").getMapStoreConfig().getClassName());
+    // another index sharing the member with the same settings
+    provider.configurePersistence("test");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void createdTest() {
+    member.getMap("test");
+    provider.configurePersistence("test");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void configuredTest() {
+    provider.configurePersistence("configured");
+  }
+}
@@ -0,0 +1,41 @@
+package com.netradius.lucene.hazelcast.directoryprovider;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * HazelcastInstanceRegistry tests.
+ */
+public class HazelcastInstanceRegistryTest {
+
+  @Test
+  public void referenceCountingTest() {
+    AtomicInteger created = new AtomicInteger();
+    Supplier<HazelcastInstance> factory = () -> {
+      created.incrementAndGet();
+      Config config = new Config();
+      config.getNetworkConfig().getJoin().getMulticastConfig().setEnabled(false);
+      return Hazelcast.newHazelcastInstance(config);
+    };
+    HazelcastInstance first = HazelcastInstanceRegistry.acquire("test", factory);
+    HazelcastInstance second = HazelcastInstanceRegistry.acquire("test", factory);
+    Assert.assertSame(first, second);
+    Assert.assertEquals(1, created.get());
+    Assert.assertEquals(2, HazelcastInstanceRegistry.references("test"));
+    HazelcastInstanceRegistry.release(first);
+    Assert.assertTrue(first.getLifecycleService().isRunning());
+    HazelcastInstanceRegistry.release(second);
+    Assert.assertFalse(first.getLifecycleService().isRunning());
+    Assert.assertEquals(0, HazelcastInstanceRegistry.references("test"));
+    HazelcastInstance third = HazelcastInstanceRegistry.acquire("test", factory);
+    Assert.assertNotSame(first, third);
+    Assert.assertEquals(2, created.get());
+    HazelcastInstanceRegistry.release(third);
+  }
+}